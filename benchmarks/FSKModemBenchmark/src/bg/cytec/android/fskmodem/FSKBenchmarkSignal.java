@@ -0,0 +1,169 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package bg.cytec.android.fskmodem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Synthetic signals for the benchmarks and tests, encoded on the calling thread
+ */
+public class FSKBenchmarkSignal {
+
+	public static final int PAYLOAD_SIZE = 64; // bytes per transmission, fits the encoder data buffer
+
+	// /
+
+	protected FSKConfig mConfig;
+
+	protected byte[] mPayload;
+
+	protected ByteArrayOutputStream mPCM8 = new ByteArrayOutputStream();
+
+	protected short[] mPCM16 = new short[0];
+
+	protected int mLength = 0;
+
+	protected int mSilenceBits = FSKConfig.ENCODER_SILENCE_BITS; // silence after the transmission
+
+	///
+
+	public FSKBenchmarkSignal(int modemMode, int pcmFormat, int channels) throws IOException {
+		this(new FSKConfig(FSKConfig.SAMPLE_RATE_44100, pcmFormat, channels, modemMode, FSKConfig.THRESHOLD_20P));
+	}
+
+	public FSKBenchmarkSignal(FSKConfig config) {
+		mConfig = config;
+
+		mPayload = new byte[PAYLOAD_SIZE];
+
+		for (int i = 0; i < mPayload.length; i++) {
+			mPayload[i] = (byte) ('A' + (i % 26)); //printable, the encoder sends 7 bits reliably
+		}
+	}
+
+	public FSKConfig getConfig() {
+		return mConfig;
+	}
+
+	public byte[] getPayload() {
+		return mPayload;
+	}
+
+	/**
+	 * Follow the transmission with idle line time, before encode()
+	 * @param millis
+	 * @return this
+	 */
+	public FSKBenchmarkSignal setIdle(int millis) {
+		mSilenceBits = Math.max(FSKConfig.ENCODER_SILENCE_BITS, millis * mConfig.modemBaudRate / 1000);
+
+		return this;
+	}
+
+	/**
+	 * @return encoded 8bit signal, only for PCM_8BIT configs
+	 */
+	public byte[] getPCM8() {
+		return mPCM8.toByteArray();
+	}
+
+	/**
+	 * @return encoded 16bit signal, only for PCM_16BIT configs
+	 */
+	public short[] getPCM16() {
+		short[] result = new short[mLength];
+
+		System.arraycopy(mPCM16, 0, result, 0, mLength);
+
+		return result;
+	}
+
+	/**
+	 * Encode the payload once, including carrier and silence
+	 * @return this
+	 */
+	public FSKBenchmarkSignal encode() {
+		FSKEncoder encoder = createEncoder();
+
+		encoder.setSilenceBits(mSilenceBits);
+
+		encoder.appendData(mPayload);
+
+		run(encoder);
+
+		return this;
+	}
+
+	/**
+	 * Create encoder that collects the signal and does not start a thread
+	 * @return
+	 */
+	public FSKEncoder createEncoder() {
+		return new FSKEncoder(mConfig, new FSKEncoder.FSKEncoderCallback() {
+
+			@Override
+			public void encoded(byte[] pcm8, short[] pcm16) {
+				if (pcm8 != null) {
+					mPCM8.write(pcm8, 0, pcm8.length);
+				}
+
+				if (pcm16 != null) {
+					if (mLength + pcm16.length > mPCM16.length) {
+						short[] grown = new short[(mLength + pcm16.length) * 2];
+
+						System.arraycopy(mPCM16, 0, grown, 0, mLength);
+
+						mPCM16 = grown;
+					}
+
+					System.arraycopy(pcm16, 0, mPCM16, mLength, pcm16.length);
+
+					mLength += pcm16.length;
+				}
+			}
+		}) {
+
+			@Override
+			protected void start() {
+				setStatus(EncoderStatus.PRE_CARRIER); //run() drives the state machine instead of a thread
+			}
+		};
+	}
+
+	/**
+	 * Drive the encoder state machine on the calling thread until it is idle,
+	 * holding the data lock like the encoder thread does
+	 * @param encoder
+	 */
+	public static void run(FSKEncoder encoder) {
+		synchronized (encoder.mData) {
+			while (!encoder.mEncoderStatus.equals(FSKEncoder.EncoderStatus.IDLE)) {
+				encoder.processIteration();
+			}
+		}
+	}
+
+}
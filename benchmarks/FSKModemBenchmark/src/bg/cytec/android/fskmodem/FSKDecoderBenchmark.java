@@ -0,0 +1,133 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decode throughput over a synthetic transmission, per soft modem mode,
+ * sample format, channel count and idle line time. Run with -prof gc for gc.alloc.rate.norm.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FSKDecoderBenchmark {
+
+	@Param({"1", "2", "3", "4", "5"})
+	public int modemMode;
+
+	@Param({"8", "16"})
+	public int bits;
+
+	@Param({"1", "2"})
+	public int channels;
+
+	@Param({"0", "2000"})
+	public int idleMillis; // idle line time after the transmission, the search has to go through it
+
+	// /
+
+	protected FSKDecoder mDecoder;
+
+	protected byte[] mPCM8;
+
+	protected short[] mPCM16;
+
+	protected int mSamples = 0;
+
+	/**
+	 * Reported next to the operations, as samples/s and bytes/s
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+
+		public long samples;
+
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			samples = 0;
+			bytes = 0;
+		}
+	}
+
+	///
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		int pcmFormat = (bits == 8) ? FSKConfig.PCM_8BIT : FSKConfig.PCM_16BIT;
+
+		FSKBenchmarkSignal signal = new FSKBenchmarkSignal(modemMode, pcmFormat, channels).setIdle(idleMillis).encode();
+
+		if (pcmFormat == FSKConfig.PCM_8BIT) {
+			mPCM8 = signal.getPCM8();
+			mSamples = mPCM8.length;
+		}
+		else {
+			mPCM16 = signal.getPCM16();
+			mSamples = mPCM16.length;
+		}
+
+		mDecoder = new FSKDecoder(signal.getConfig(), null);
+
+		//a configuration that does not decode its own signal is not worth measuring
+		byte[] data = (mPCM16 != null) ? mDecoder.decodeAll(mPCM16) : mDecoder.decodeAll(mPCM8);
+
+		if (!Arrays.equals(data, signal.getPayload())) {
+			throw new IllegalStateException("Mode "+modemMode+", "+bits+"bit, "+channels+" channel(s) decoded "+data.length+" bytes that do not match the payload");
+		}
+	}
+
+	@Benchmark
+	public byte[] decode(Counters counters) {
+		byte[] data = (mPCM16 != null) ? mDecoder.decodeAll(mPCM16) : mDecoder.decodeAll(mPCM8);
+
+		counters.samples += mSamples;
+		counters.bytes += data.length;
+
+		return data;
+	}
+
+}
@@ -0,0 +1,156 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encode throughput of one transmission, per soft modem mode, sample
+ * format and channel count. Run with -prof gc for gc.alloc.rate.norm.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FSKEncoderBenchmark {
+
+	@Param({"1", "2", "3", "4", "5"})
+	public int modemMode;
+
+	@Param({"8", "16"})
+	public int bits;
+
+	@Param({"1", "2"})
+	public int channels;
+
+	// /
+
+	protected FSKBenchmarkSignal mSignal;
+
+	protected FSKEncoder mEncoder;
+
+	protected int mSamples = 0;
+
+	protected FSKEncoder mPullEncoder;
+
+	protected byte[] mBuffer8;
+
+	protected short[] mBuffer16;
+
+	/**
+	 * Reported next to the operations, as samples/s and bytes/s
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+
+		public long samples;
+
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			samples = 0;
+			bytes = 0;
+		}
+	}
+
+	///
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		int pcmFormat = (bits == 8) ? FSKConfig.PCM_8BIT : FSKConfig.PCM_16BIT;
+
+		FSKBenchmarkSignal signal = new FSKBenchmarkSignal(modemMode, pcmFormat, channels).encode();
+
+		mSamples = (pcmFormat == FSKConfig.PCM_8BIT) ? signal.getPCM8().length : signal.getPCM16().length;
+
+		//the encoder output is thrown away, only the encoding is measured
+		mSignal = new FSKBenchmarkSignal(modemMode, pcmFormat, channels);
+
+		mEncoder = new FSKEncoder(signal.getConfig(), null) {
+
+			@Override
+			protected void start() {
+				setStatus(EncoderStatus.PRE_CARRIER);
+			}
+		};
+
+		mPullEncoder = new FSKEncoder(signal.getConfig());
+
+		mBuffer8 = new byte[FSKDecoder.STREAM_BUFFER_SIZE];
+		mBuffer16 = new short[FSKDecoder.STREAM_BUFFER_SIZE];
+	}
+
+	@Benchmark
+	public int encode(Counters counters) {
+		mEncoder.appendData(mSignal.getPayload());
+
+		FSKBenchmarkSignal.run(mEncoder);
+
+		counters.samples += mSamples;
+		counters.bytes += FSKBenchmarkSignal.PAYLOAD_SIZE;
+
+		return mEncoder.mSignalLength;
+	}
+
+	@Benchmark
+	public int read(Counters counters) {
+		mPullEncoder.appendData(mSignal.getPayload());
+
+		int count = 0;
+
+		while (!mPullEncoder.isIdle()) {
+			if (bits == 8) {
+				count += mPullEncoder.read(mBuffer8, 0, mBuffer8.length);
+			}
+			else {
+				count += mPullEncoder.read(mBuffer16, 0, mBuffer16.length);
+			}
+		}
+
+		counters.samples += count;
+		counters.bytes += FSKBenchmarkSignal.PAYLOAD_SIZE;
+
+		return count;
+	}
+
+}
@@ -0,0 +1,98 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package bg.cytec.android.fskmodem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Transmissions from a sender whose clock runs off by a percent or two decode
+ * with timing recovery, and lose bytes without it
+ */
+public class FSKBitTimingTest {
+
+	public static final double[] DRIFTS = {-0.02, -0.01, 0.01, 0.02}; // sender clock error
+
+	public static final int BUFFER_SIZE = 2000; // samples, small enough that the decoder trims the signal often
+
+	///
+
+	@Test
+	public void recoveryFollowsClockDrift() throws IOException {
+		for (int mode : new int[] {FSKConfig.SOFT_MODEM_MODE_3, FSKConfig.SOFT_MODEM_MODE_4}) {
+			FSKConfig config = new FSKConfig(FSKConfig.SAMPLE_RATE_44100, FSKConfig.PCM_16BIT, FSKConfig.CHANNELS_MONO, mode, FSKConfig.THRESHOLD_20P);
+
+			for (double drift : DRIFTS) {
+				FSKBenchmarkSignal signal = encode(config, drift);
+
+				for (FSKToneDetector detector : new FSKToneDetector[] {new FSKZeroCrossingDetector(config), new FSKGoertzelDetector(config)}) {
+					FSKDecoder decoder = new FSKDecoder(config, null, BUFFER_SIZE);
+
+					decoder.setToneDetector(detector);
+
+					String name = "mode "+mode+", drift "+drift+", "+detector.getClass().getSimpleName();
+
+					assertArrayEquals(name, signal.getPayload(), decoder.decodeAll(signal.getPCM16()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void driftBreaksFixedTiming() throws IOException {
+		FSKConfig config = new FSKConfig(FSKConfig.SAMPLE_RATE_44100, FSKConfig.PCM_16BIT, FSKConfig.CHANNELS_MONO, FSKConfig.SOFT_MODEM_MODE_4, FSKConfig.THRESHOLD_20P);
+
+		for (double drift : DRIFTS) {
+			FSKBenchmarkSignal signal = encode(config, drift);
+
+			FSKDecoder decoder = new FSKDecoder(config, null, BUFFER_SIZE);
+
+			decoder.setTimingRecovery(false);
+
+			assertFalse("drift "+drift, Arrays.equals(signal.getPayload(), decoder.decodeAll(signal.getPCM16())));
+		}
+	}
+
+	///
+
+	/**
+	 * A sender clock that runs fast by drift plays the signal of a lower sample
+	 * rate, which scales the baud rate and the tones together
+	 */
+	protected FSKBenchmarkSignal encode(FSKConfig config, double drift) throws IOException {
+		FSKConfig sender = new FSKConfig.Builder(config)
+			.setSampleRate((int) Math.round(config.sampleRate / (1 + drift)))
+			.build();
+
+		return new FSKBenchmarkSignal(sender).encode();
+	}
+
+}
@@ -0,0 +1,137 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+/**
+ * Steady-state decoding allocates nothing but the array handed to the callback on every flush,
+ * measured with the allocation counter of the decoding thread.
+ */
+public class FSKDecoderAllocationTest {
+
+	public static final int ROUNDS = 50; // transmissions decoded by the same decoder
+
+	public static final int WARMUP_ROUNDS = 30; // not measured, lazy initialization, class loading and JIT compilation
+
+	// /
+
+	protected ByteArrayOutputStream mDecoded = new ByteArrayOutputStream(); // preallocated, see FSKDecoderCallback below
+
+	protected int mFlushes = 0;
+
+	protected long mCallbackBytes = 0; // heap size of the arrays the decoder handed over
+
+	///
+
+	@Test
+	public void zeroCrossingDecodeAllocatesOnlyCallbackData() throws IOException {
+		checkAllocations(false);
+	}
+
+	@Test
+	public void goertzelDecodeAllocatesOnlyCallbackData() throws IOException {
+		checkAllocations(true);
+	}
+
+	///
+
+	protected void checkAllocations(boolean goertzel) throws IOException {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) bean;
+
+		assumeTrue(mx.isThreadAllocatedMemorySupported() && mx.isThreadAllocatedMemoryEnabled());
+
+		FSKBenchmarkSignal signal = new FSKBenchmarkSignal(4, FSKConfig.PCM_16BIT, 1).encode();
+
+		short[] pcm = signal.getPCM16();
+
+		mDecoded = new ByteArrayOutputStream(signal.getPayload().length * 2);
+
+		FSKDecoder decoder = new FSKDecoder(signal.getConfig(), new FSKDecoder.FSKDecoderCallback() {
+
+			@Override
+			public void decoded(byte[] newData) {
+				mFlushes++;
+				mCallbackBytes += arraySize(newData.length);
+
+				mDecoded.write(newData, 0, newData.length);
+			}
+		}, pcm.length * 2) {
+
+			@Override
+			protected void start() {
+				//decode on the test thread, process() is called below, the buffer keeps the tail of the previous round
+			}
+		};
+
+		if (goertzel) {
+			decoder.setToneDetector(new FSKGoertzelDetector(signal.getConfig()));
+		}
+
+		long tid = Thread.currentThread().getId();
+
+		for (int round = 0; round < ROUNDS; round++) {
+			mDecoded.reset();
+
+			mFlushes = 0;
+			mCallbackBytes = 0;
+
+			assertTrue("signal refused", decoder.appendSignal(pcm) >= 0);
+
+			long before = mx.getThreadAllocatedBytes(tid);
+
+			decoder.process();
+
+			long allocated = mx.getThreadAllocatedBytes(tid) - before;
+
+			assertArrayEquals("round "+round, signal.getPayload(), mDecoded.toByteArray());
+
+			if (round >= WARMUP_ROUNDS) {
+				assertTrue("round "+round+" allocated "+allocated+" bytes, "+mFlushes+" flushes account for "+mCallbackBytes, allocated <= mCallbackBytes);
+			}
+		}
+	}
+
+	/**
+	 * Upper bound of the heap size of a byte array, header included
+	 * @param length
+	 * @return
+	 */
+	protected static long arraySize(int length) {
+		return (24 + length + 7) & ~7L;
+	}
+
+}
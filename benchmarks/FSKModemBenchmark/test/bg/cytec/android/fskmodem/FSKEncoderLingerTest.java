@@ -0,0 +1,113 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package bg.cytec.android.fskmodem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * A push encoder hands over the signal before it lingers, and data appended
+ * in the linger window is decoded as part of the same burst
+ */
+public class FSKEncoderLingerTest {
+
+	public static final int LINGER = 1500; // milliseconds
+
+	// /
+
+	protected short[] mSignal = new short[0];
+
+	protected int mLength = 0;
+
+	///
+
+	@Test
+	public void signalIsFlushedBeforeLinger() throws IOException, InterruptedException {
+		FSKConfig config = new FSKConfig(FSKConfig.SAMPLE_RATE_44100, FSKConfig.PCM_16BIT, FSKConfig.CHANNELS_MONO, FSKConfig.SOFT_MODEM_MODE_4, FSKConfig.THRESHOLD_20P);
+
+		FSKEncoder encoder = new FSKEncoder(config, new FSKEncoder.FSKEncoderCallback() {
+
+			@Override
+			public void encoded(byte[] pcm8, short[] pcm16) {
+				synchronized (FSKEncoderLingerTest.this) {
+					if (mLength + pcm16.length > mSignal.length) {
+						mSignal = Arrays.copyOf(mSignal, (mLength + pcm16.length) * 2);
+					}
+
+					System.arraycopy(pcm16, 0, mSignal, mLength, pcm16.length);
+
+					mLength += pcm16.length;
+				}
+			}
+		});
+
+		encoder.setLinger(LINGER);
+
+		try {
+			long start = System.currentTimeMillis();
+
+			encoder.appendData("first ".getBytes());
+
+			while (length() == 0 && System.currentTimeMillis() - start < LINGER * 2) {
+				Thread.sleep(10);
+			}
+
+			long elapsed = System.currentTimeMillis() - start;
+
+			assertTrue("the signal came after "+elapsed+" ms", elapsed < LINGER / 2);
+
+			encoder.appendData("second".getBytes());
+
+			while (!encoder.isIdle() && System.currentTimeMillis() - start < LINGER * 4) {
+				Thread.sleep(10);
+			}
+
+			assertTrue("the transmission did not end", encoder.isIdle());
+		}
+		finally {
+			encoder.stop();
+		}
+
+		short[] signal;
+
+		synchronized (this) {
+			signal = Arrays.copyOf(mSignal, mLength);
+		}
+
+		assertArrayEquals("first second".getBytes(), new FSKDecoder(config, null).decodeAll(signal));
+	}
+
+	///
+
+	protected synchronized int length() {
+		return mLength;
+	}
+
+}
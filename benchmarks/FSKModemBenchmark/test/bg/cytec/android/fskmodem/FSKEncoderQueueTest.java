@@ -0,0 +1,90 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package bg.cytec.android.fskmodem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * appendData() queues payloads of any size and refuses data only while the queue is over its limit
+ */
+public class FSKEncoderQueueTest {
+
+	public static final int LIMIT = 256;
+
+	///
+
+	@Test
+	public void largePayloadIsQueuedWhenEmpty() throws IOException {
+		FSKEncoder encoder = createEncoder();
+
+		int left = encoder.appendData(new byte[LIMIT * 10]);
+
+		assertEquals(0, left);
+		assertEquals(LIMIT * 10, encoder.getQueueSize());
+	}
+
+	@Test
+	public void appendOverLimitIsRefused() throws IOException {
+		FSKEncoder encoder = createEncoder();
+
+		assertEquals(LIMIT - 200, encoder.appendData(new byte[200]));
+
+		int overflow = encoder.appendData(new byte[100], 10, 80);
+
+		assertEquals("overflow", LIMIT - 280, overflow);
+		assertEquals("nothing queued", 200, encoder.getQueueSize());
+
+		assertEquals(0, encoder.appendData(new byte[56]));
+		assertEquals(LIMIT, encoder.getQueueSize());
+	}
+
+	@Test
+	public void timedAppendRefusesAfterTimeout() throws IOException, InterruptedException {
+		FSKEncoder encoder = createEncoder();
+
+		encoder.appendData(new byte[LIMIT]);
+
+		assertTrue(encoder.appendData(new byte[1], 10) < 0);
+		assertEquals(LIMIT, encoder.getQueueSize());
+	}
+
+	///
+
+	protected FSKEncoder createEncoder() throws IOException {
+		FSKConfig config = new FSKConfig(FSKConfig.SAMPLE_RATE_44100, FSKConfig.PCM_16BIT, FSKConfig.CHANNELS_MONO, FSKConfig.SOFT_MODEM_MODE_4, FSKConfig.THRESHOLD_20P);
+
+		FSKEncoder encoder = new FSKEncoder(config); //pull mode, nothing is sent until read() is called
+
+		encoder.setQueueLimit(LIMIT);
+
+		return encoder;
+	}
+
+}
@@ -0,0 +1,105 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package bg.cytec.android.fskmodem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Parallel decoding of a long recording returns the same data as FSKDecoder.decodeAll()
+ */
+public class FSKParallelDecoderTest {
+
+	public static final int TRANSMISSIONS = 24; // separated by the silence the encoder appends
+
+	public static final int THREADS = 4;
+
+	///
+
+	@Test
+	public void matchesSequentialDecode16bitMono() throws IOException, InterruptedException {
+		checkDecode(FSKConfig.PCM_16BIT, FSKConfig.CHANNELS_MONO);
+	}
+
+	@Test
+	public void matchesSequentialDecode16bitStereo() throws IOException, InterruptedException {
+		checkDecode(FSKConfig.PCM_16BIT, FSKConfig.CHANNELS_STEREO);
+	}
+
+	@Test
+	public void matchesSequentialDecode8bitMono() throws IOException, InterruptedException {
+		checkDecode(FSKConfig.PCM_8BIT, FSKConfig.CHANNELS_MONO);
+	}
+
+	///
+
+	protected void checkDecode(int pcmFormat, int channels) throws IOException, InterruptedException {
+		FSKBenchmarkSignal signal = new FSKBenchmarkSignal(4, pcmFormat, channels);
+
+		for (int i = 0; i < TRANSMISSIONS; i++) {
+			signal.encode();
+		}
+
+		FSKConfig config = signal.getConfig();
+
+		FSKParallelDecoder parallel = new FSKParallelDecoder(config, THREADS);
+
+		try {
+			byte[] sequential;
+			byte[] decoded;
+			int segments;
+
+			if (pcmFormat == FSKConfig.PCM_8BIT) {
+				byte[] pcm = signal.getPCM8();
+
+				sequential = new FSKDecoder(config, null).decodeAll(pcm);
+				decoded = parallel.decodeAll(pcm);
+				segments = parallel.split(pcm.length, null, pcm).size();
+			}
+			else {
+				short[] pcm = signal.getPCM16();
+
+				sequential = new FSKDecoder(config, null).decodeAll(pcm);
+				decoded = parallel.decodeAll(pcm);
+				segments = parallel.split(pcm.length, pcm, null).size();
+			}
+
+			assertTrue("the recording was not split, "+segments+" segment(s)", segments > 1);
+
+			assertEquals(TRANSMISSIONS * signal.getPayload().length, sequential.length);
+
+			assertArrayEquals(sequential, decoded);
+		}
+		finally {
+			parallel.close();
+		}
+	}
+
+}
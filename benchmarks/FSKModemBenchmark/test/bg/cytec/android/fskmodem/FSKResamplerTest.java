@@ -0,0 +1,161 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package bg.cytec.android.fskmodem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Signals encoded at one sample rate decode at another through FSKResampler, fed in chunks
+ */
+public class FSKResamplerTest {
+
+	// capture rate, decoder rate before nearestSampleRate(), baud rate, low and high tone
+	public static final int[][] CONVERSIONS = {
+		{48000, 44100, 300, 1200, 2400}, {44100, 48000, 300, 1200, 2400},
+		{44100, 22050, 315, 1575, 3150}, {16000, 44100, 400, 1600, 3200}
+	};
+
+	public static final int[] CHUNK_SIZES = {1, 37, 1001}; // samples per appendSignal(), the filter state carries over
+
+	public static final int TIMEOUT = 10000; // milliseconds for the decoder thread
+
+	///
+
+	@Test
+	public void chunkedRoundTrip() throws IOException, InterruptedException {
+		for (int[] conversion : CONVERSIONS) {
+			for (int pcmFormat : new int[] {FSKConfig.PCM_8BIT, FSKConfig.PCM_16BIT}) {
+				for (int size : CHUNK_SIZES) {
+					FSKConfig input = createConfig(conversion[0], pcmFormat, conversion);
+					FSKConfig output = createConfig(FSKResampler.nearestSampleRate(conversion[1], conversion[2]), pcmFormat, conversion);
+
+					String name = conversion[0]+" to "+output.sampleRate+" Hz, "+(pcmFormat == FSKConfig.PCM_8BIT ? 8 : 16)+"bit, chunks of "+size;
+
+					checkRoundTrip(name, input, output, "resampled transmission".getBytes(), size);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void largeRatioRoundTrip() throws IOException, InterruptedException {
+		//44100 to 47745 Hz reduces to 1061/980, more phases than the bank keeps
+		int[] profile = {44100, 47745, 45, 180, 450};
+
+		FSKConfig input = createConfig(profile[0], FSKConfig.PCM_16BIT, profile);
+		FSKConfig output = createConfig(profile[1], FSKConfig.PCM_16BIT, profile);
+
+		assertEquals(FSKResampler.MAX_PHASES, FSKResampler.getBank(1061, 980).length);
+
+		checkRoundTrip("44100 to 47745 Hz", input, output, "capped".getBytes(), 1001);
+	}
+
+	///
+
+	protected FSKConfig createConfig(int sampleRate, int pcmFormat, int[] profile) throws IOException {
+		return new FSKConfig.Builder()
+			.setSampleRate(sampleRate)
+			.setPcmFormat(pcmFormat)
+			.setBaudRate(profile[2])
+			.setFrequencies(profile[3], profile[4])
+			.build();
+	}
+
+	/**
+	 * Encode at the input rate and read the signal in chunks of the given size,
+	 * each chunk is resampled and appended to a decoder running at the output rate
+	 */
+	protected void checkRoundTrip(String name, FSKConfig input, FSKConfig output, byte[] payload, int size) throws InterruptedException {
+		FSKEncoder encoder = new FSKEncoder(input);
+
+		encoder.appendData(payload);
+
+		final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+
+		FSKDecoder decoder = new FSKDecoder(output, new FSKDecoder.FSKDecoderCallback() {
+
+			@Override
+			public void decoded(byte[] newData) {
+				synchronized (decoded) {
+					decoded.write(newData, 0, newData.length);
+				}
+			}
+		});
+
+		FSKResampler resampler = new FSKResampler(decoder, input.sampleRate);
+
+		try {
+			byte[] buffer8 = new byte[size];
+			short[] buffer16 = new short[size];
+
+			while (!encoder.isIdle()) {
+				if (input.pcmFormat == FSKConfig.PCM_8BIT) {
+					int count = encoder.read(buffer8, 0, size);
+
+					while (resampler.appendSignal(buffer8, 0, count) < 0) {
+						Thread.sleep(1); //wait for the decoder to make room
+					}
+				}
+				else {
+					int count = encoder.read(buffer16, 0, size);
+
+					while (resampler.appendSignal(buffer16, 0, count) < 0) {
+						Thread.sleep(1);
+					}
+				}
+			}
+
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+
+			while (System.currentTimeMillis() < deadline) {
+				synchronized (decoded) {
+					if (decoded.size() >= payload.length) {
+						break;
+					}
+				}
+
+				Thread.sleep(10);
+			}
+		}
+		finally {
+			decoder.close();
+		}
+
+		synchronized (decoded) {
+			assertTrue(name+" decoded "+decoded.size()+" bytes", decoded.size() >= payload.length);
+
+			assertArrayEquals(name, payload, decoded.toByteArray());
+		}
+	}
+
+}
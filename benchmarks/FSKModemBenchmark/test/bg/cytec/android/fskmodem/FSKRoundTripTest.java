@@ -0,0 +1,419 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package bg.cytec.android.fskmodem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Signals encoded by FSKEncoder decode back to the payload with FSKDecoder
+ */
+public class FSKRoundTripTest {
+
+	public static final int[] MODES = {
+		FSKConfig.SOFT_MODEM_MODE_2, FSKConfig.SOFT_MODEM_MODE_3, FSKConfig.SOFT_MODEM_MODE_4
+	};
+
+	public static final int[] SAMPLE_RATES = {8000, 16000, 22050, 29400, 32000, 44100, 48000};
+
+	public static final int[] ALL_MODES = {1, 2, 3, 4, 5, 6, 7};
+
+	public static final int[] ZERO_CROSSING_MODES = {1, 2, 3, 4}; // the modes FSKDecoder counts zero crossings for
+
+	// sample rate, baud rate, low and high tone, number of tones; most are not whole cycles or whole samples per bit
+	public static final int[][] CUSTOM_PROFILES = {
+		{48000, 320, 1584, 3168, 2}, {16000, 1000, 4497, 7497, 2}, {44100, 700, 5742, 7362, 2},
+		{8000, 400, 788, 2208, 2}, {22050, 1470, 4834, 9621, 2}, {32000, 1000, 3000, 9000, 4},
+		{44100, 1000, 3000, 6000, 2}, {29400, 1200, 2400, 4800, 2}, {48000, 1225, 4900, 7350, 2}
+	};
+
+	public static final int STEREO_TIMEOUT = 10000; // milliseconds for the stereo decoder threads
+
+	public static final int[] READ_SIZES = {3, 7, 37, 101, 1001}; // samples per read(), none of them a whole bit
+
+	///
+
+	@Test
+	public void phaseContinuousRoundTrip() throws IOException {
+		for (int mode : MODES) {
+			for (int pcmFormat : new int[] {FSKConfig.PCM_8BIT, FSKConfig.PCM_16BIT}) {
+				FSKBenchmarkSignal signal = new FSKBenchmarkSignal(mode, pcmFormat, FSKConfig.CHANNELS_MONO);
+
+				FSKEncoder encoder = signal.createEncoder();
+
+				encoder.setPhaseContinuous(true);
+
+				encoder.appendData(signal.getPayload());
+
+				FSKBenchmarkSignal.run(encoder);
+
+				String name = "mode "+mode+", "+(pcmFormat == FSKConfig.PCM_8BIT ? 8 : 16)+"bit";
+
+				FSKConfig config = signal.getConfig();
+
+				if (pcmFormat == FSKConfig.PCM_8BIT) {
+					assertArrayEquals(name, signal.getPayload(), new FSKDecoder(config, null).decodeAll(signal.getPCM8()));
+				}
+				else {
+					short[] pcm = signal.getPCM16();
+
+					assertArrayEquals(name, signal.getPayload(), new FSKDecoder(config, null).decodeAll(pcm));
+
+					//no jumps at bit boundaries, the largest step of a sine at the high tone plus table resolution
+					int first = 0;
+					int last = pcm.length - 1;
+
+					while (first < last && pcm[first] == 0) first++;
+					while (last > first && pcm[last] == 0) last--;
+
+					double limit = 32767 * 2 * Math.PI * (config.modemFreqHigh * 1.0 / config.sampleRate + 1.0 / (1 << FSKWaveforms.SINE_TABLE_BITS)) + 2;
+
+					for (int i = first; i < last; i++) {
+						assertTrue(name+", step of "+(pcm[i+1] - pcm[i])+" at sample "+i, Math.abs(pcm[i+1] - pcm[i]) <= limit);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void unsigned8bitRoundTrip() throws IOException {
+		for (int mode : MODES) {
+			FSKBenchmarkSignal signal = new FSKBenchmarkSignal(mode, FSKConfig.PCM_8BIT, FSKConfig.CHANNELS_MONO).encode();
+
+			byte[] pcm = signal.getPCM8();
+
+			//the encoder ends with silence, idle at 128
+			assertEquals("mode "+mode+", last sample", (byte) 0x80, pcm[pcm.length - 1]);
+
+			FSKDecoder decoder = new FSKDecoder(signal.getConfig(), null);
+
+			assertArrayEquals("mode "+mode+", zero crossings", signal.getPayload(), decoder.decodeAll(pcm));
+
+			decoder.setToneDetector(new FSKGoertzelDetector(signal.getConfig()));
+
+			assertArrayEquals("mode "+mode+", Goertzel", signal.getPayload(), decoder.decodeAll(pcm));
+		}
+	}
+
+	@Test
+	public void defaultDetectorRoundTrip() {
+		List<String> failed = new ArrayList<String>();
+		int profiles = 0;
+
+		for (int sampleRate : SAMPLE_RATES) {
+			for (int mode : ALL_MODES) {
+				for (int pcmFormat : new int[] {FSKConfig.PCM_8BIT, FSKConfig.PCM_16BIT}) {
+					FSKConfig config;
+
+					try {
+						config = new FSKConfig.Builder()
+							.setSampleRate(sampleRate)
+							.setPcmFormat(pcmFormat)
+							.setModemMode(mode)
+							.build();
+					}
+					catch (IOException e) {
+						continue; //refused, e.g. too few samples per bit
+					}
+
+					FSKBenchmarkSignal signal = new FSKBenchmarkSignal(config).encode();
+
+					FSKDecoder decoder = new FSKDecoder(config, null);
+
+					byte[] data = (pcmFormat == FSKConfig.PCM_8BIT) ? decoder.decodeAll(signal.getPCM8()) : decoder.decodeAll(signal.getPCM16());
+
+					if (!Arrays.equals(data, signal.getPayload())) {
+						failed.add("mode "+mode+" at "+sampleRate+" Hz "+((pcmFormat == FSKConfig.PCM_8BIT) ? 8 : 16)+"bit ("+data.length+" bytes)");
+					}
+
+					profiles++;
+				}
+			}
+		}
+
+		assertTrue("no profile was accepted", profiles > 0);
+
+		assertTrue("no round-trip: "+failed, failed.isEmpty());
+	}
+
+	@Test
+	public void zeroCrossingRoundTrip() {
+		List<String> failed = new ArrayList<String>();
+
+		for (int sampleRate : SAMPLE_RATES) {
+			for (int mode : ZERO_CROSSING_MODES) {
+				for (int pcmFormat : new int[] {FSKConfig.PCM_8BIT, FSKConfig.PCM_16BIT}) {
+					FSKConfig config;
+
+					try {
+						config = new FSKConfig(sampleRate, pcmFormat, FSKConfig.CHANNELS_MONO, mode, FSKConfig.THRESHOLD_20P);
+					}
+					catch (IOException e) {
+						continue; //refused, e.g. mode 4 at 8000 Hz
+					}
+
+					FSKBenchmarkSignal signal = new FSKBenchmarkSignal(config).encode();
+
+					FSKDecoder decoder = new FSKDecoder(config, null);
+
+					decoder.setToneDetector(new FSKZeroCrossingDetector(config));
+
+					byte[] data = (pcmFormat == FSKConfig.PCM_8BIT) ? decoder.decodeAll(signal.getPCM8()) : decoder.decodeAll(signal.getPCM16());
+
+					if (!Arrays.equals(data, signal.getPayload())) {
+						failed.add("mode "+mode+" at "+sampleRate+" Hz "+((pcmFormat == FSKConfig.PCM_8BIT) ? 8 : 16)+"bit ("+data.length+" bytes)");
+					}
+				}
+			}
+		}
+
+		assertTrue("no round-trip: "+failed, failed.isEmpty());
+	}
+
+	@Test
+	public void customProfileRoundTrip() throws IOException {
+		for (int[] profile : CUSTOM_PROFILES) {
+			for (int pcmFormat : new int[] {FSKConfig.PCM_8BIT, FSKConfig.PCM_16BIT}) {
+				FSKConfig config = new FSKConfig.Builder()
+					.setSampleRate(profile[0])
+					.setPcmFormat(pcmFormat)
+					.setBaudRate(profile[1])
+					.setFrequencies(profile[2], profile[3])
+					.setTones(profile[4])
+					.build();
+
+				FSKBenchmarkSignal signal = new FSKBenchmarkSignal(config).encode();
+
+				FSKDecoder decoder = new FSKDecoder(config, null);
+
+				byte[] data = (pcmFormat == FSKConfig.PCM_8BIT) ? decoder.decodeAll(signal.getPCM8()) : decoder.decodeAll(signal.getPCM16());
+
+				assertArrayEquals(Arrays.toString(profile), signal.getPayload(), data);
+			}
+		}
+
+		try {
+			//less than a cycle of the low tone per bit
+			new FSKConfig.Builder().setSampleRate(8000).setBaudRate(1000).setFrequencies(76, 3076).build();
+
+			fail("profile accepted");
+		}
+		catch (IOException e) {
+			//expected
+		}
+
+		try {
+			//tones a baud rate apart, but the 15 sample frame is shorter than the 15.45 sample bit
+			new FSKConfig.Builder().setSampleRate(16000).setBaudRate(1035).setFrequencies(6210, 7245).build();
+
+			fail("profile accepted");
+		}
+		catch (IOException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void pullReadMatchesPushOutput() throws IOException {
+		for (int size : READ_SIZES) {
+			checkPull(FSKConfig.PCM_16BIT, FSKConfig.CHANNELS_MONO, size);
+			checkPull(FSKConfig.PCM_16BIT, FSKConfig.CHANNELS_STEREO, size);
+			checkPull(FSKConfig.PCM_8BIT, FSKConfig.CHANNELS_MONO, size);
+		}
+
+		checkPull(FSKConfig.PCM_16BIT, FSKConfig.CHANNELS_MONO, 1);
+	}
+
+	@Test
+	public void stereoRoundTrip() throws IOException, InterruptedException {
+		checkStereo(FSKConfig.PCM_16BIT);
+		checkStereo(FSKConfig.PCM_8BIT);
+	}
+
+	@Test
+	public void multiToneRoundTrip() throws IOException {
+		for (int mode : new int[] {FSKConfig.SOFT_MODEM_MODE_6, FSKConfig.SOFT_MODEM_MODE_7}) {
+			for (int pcmFormat : new int[] {FSKConfig.PCM_8BIT, FSKConfig.PCM_16BIT}) {
+				for (boolean continuous : new boolean[] {false, true}) {
+					FSKBenchmarkSignal signal = new FSKBenchmarkSignal(mode, pcmFormat, FSKConfig.CHANNELS_MONO);
+
+					FSKEncoder encoder = signal.createEncoder();
+
+					encoder.setPhaseContinuous(continuous);
+
+					encoder.appendData(signal.getPayload());
+
+					FSKBenchmarkSignal.run(encoder);
+
+					String name = "mode "+mode+", "+(pcmFormat == FSKConfig.PCM_8BIT ? 8 : 16)+"bit"+(continuous ? ", CPFSK" : "");
+
+					FSKDecoder decoder = new FSKDecoder(signal.getConfig(), null); //the default detector handles every tone
+
+					if (pcmFormat == FSKConfig.PCM_8BIT) {
+						assertArrayEquals(name, signal.getPayload(), decoder.decodeAll(signal.getPCM8()));
+					}
+					else {
+						assertArrayEquals(name, signal.getPayload(), decoder.decodeAll(signal.getPCM16()));
+					}
+				}
+			}
+		}
+	}
+
+	///
+
+	/**
+	 * Pull the transmission with read() in chunks of the given size. The bits split
+	 * between reads must carry over, so the signal matches the callback output.
+	 */
+	protected void checkPull(int pcmFormat, int channels, int size) throws IOException {
+		FSKBenchmarkSignal push = new FSKBenchmarkSignal(FSKConfig.SOFT_MODEM_MODE_4, pcmFormat, channels).encode();
+
+		FSKEncoder encoder = new FSKEncoder(push.getConfig());
+
+		encoder.appendData(push.getPayload());
+
+		String name = (pcmFormat == FSKConfig.PCM_8BIT ? 8 : 16)+"bit, "+channels+" channel(s), read("+size+")";
+
+		int length = 0;
+
+		if (pcmFormat == FSKConfig.PCM_8BIT) {
+			byte[] expected = push.getPCM8();
+			byte[] pulled = new byte[expected.length + size];
+
+			while (!encoder.isIdle()) {
+				assertTrue(name+" read past the transmission", length + size <= pulled.length);
+
+				length += encoder.read(pulled, length, size);
+			}
+
+			assertTrue(name+" pulled "+length+" of "+expected.length+" samples", length >= expected.length);
+
+			assertArrayEquals(name, expected, Arrays.copyOf(pulled, expected.length));
+		}
+		else {
+			short[] expected = push.getPCM16();
+			short[] pulled = new short[expected.length + size];
+
+			while (!encoder.isIdle()) {
+				assertTrue(name+" read past the transmission", length + size <= pulled.length);
+
+				length += encoder.read(pulled, length, size);
+			}
+
+			assertTrue(name+" pulled "+length+" of "+expected.length+" samples", length >= expected.length);
+
+			assertArrayEquals(name, expected, Arrays.copyOf(pulled, expected.length));
+
+			assertArrayEquals(name, push.getPayload(), new FSKDecoder(push.getConfig(), null).decodeAll(Arrays.copyOf(pulled, length)));
+		}
+
+		assertEquals(name+" trailing samples", 0, length % channels);
+	}
+
+	/**
+	 * Send different data on the two channels of one stereo signal and decode
+	 * each channel with FSKStereoDecoder
+	 */
+	protected void checkStereo(int pcmFormat) throws IOException, InterruptedException {
+		FSKConfig config = new FSKConfig(FSKConfig.SAMPLE_RATE_44100, pcmFormat, FSKConfig.CHANNELS_STEREO, FSKConfig.SOFT_MODEM_MODE_4, FSKConfig.THRESHOLD_20P);
+
+		final byte[][] payloads = {"left channel, the longer of the two".getBytes(), "right channel".getBytes()};
+
+		FSKStereoEncoder encoder = new FSKStereoEncoder(config);
+
+		encoder.appendData(FSKConfig.CHANNEL_LEFT, payloads[FSKConfig.CHANNEL_LEFT]);
+		encoder.appendData(FSKConfig.CHANNEL_RIGHT, payloads[FSKConfig.CHANNEL_RIGHT]);
+
+		final ByteArrayOutputStream[] decoded = {new ByteArrayOutputStream(), new ByteArrayOutputStream()};
+
+		FSKStereoDecoder decoder = new FSKStereoDecoder(config, new FSKStereoDecoder.FSKStereoDecoderCallback() {
+
+			@Override
+			public void decoded(int channel, byte[] newData) {
+				synchronized (decoded) {
+					decoded[channel].write(newData, 0, newData.length);
+				}
+			}
+		});
+
+		String name = (pcmFormat == FSKConfig.PCM_8BIT ? 8 : 16)+"bit stereo";
+
+		try {
+			//the encoder runs on this thread, the decoders on their own
+			byte[] buffer8 = new byte[1000];
+			short[] buffer16 = new short[1000];
+
+			while (!encoder.isIdle()) {
+				if (pcmFormat == FSKConfig.PCM_8BIT) {
+					int count = encoder.read(buffer8, 0, buffer8.length);
+
+					while (decoder.appendSignal(buffer8, 0, count) < 0) {
+						Thread.sleep(1); //wait for the decoders to make room
+					}
+				}
+				else {
+					int count = encoder.read(buffer16, 0, buffer16.length);
+
+					while (decoder.appendSignal(buffer16, 0, count) < 0) {
+						Thread.sleep(1);
+					}
+				}
+			}
+
+			long deadline = System.currentTimeMillis() + STEREO_TIMEOUT;
+
+			while (System.currentTimeMillis() < deadline) {
+				synchronized (decoded) {
+					if (decoded[0].size() >= payloads[0].length && decoded[1].size() >= payloads[1].length) {
+						break;
+					}
+				}
+
+				Thread.sleep(10);
+			}
+		}
+		finally {
+			decoder.close();
+		}
+
+		synchronized (decoded) {
+			assertArrayEquals(name+", left", payloads[FSKConfig.CHANNEL_LEFT], decoded[FSKConfig.CHANNEL_LEFT].toByteArray());
+			assertArrayEquals(name+", right", payloads[FSKConfig.CHANNEL_RIGHT], decoded[FSKConfig.CHANNEL_RIGHT].toByteArray());
+		}
+	}
+
+}
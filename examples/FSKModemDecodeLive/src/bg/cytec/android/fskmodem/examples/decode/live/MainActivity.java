@@ -49,14 +49,17 @@ public class MainActivity extends ActionBarActivity {
 		@Override
 		public void run() {
 			
+			short[] data = new short[mBufferSize/2]; //the buffer size is in bytes, reused for every read
+			
 			while (mRecorder.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
 				
-				short[] data = new short[mBufferSize/2]; //the buffer size is in bytes
-				
 				// gets the audio output from microphone to short array samples
-				mRecorder.read(data, 0, mBufferSize/2);
+				int read = mRecorder.read(data, 0, mBufferSize/2);
 				
-				mDecoder.appendSignal(data);
+				if (read > 0) {
+					//the decoder copies the samples straight into its own buffer
+					mDecoder.appendSignal(data, 0, read);
+				}
 			}
 		}
 	};
@@ -125,7 +128,7 @@ public class MainActivity extends ActionBarActivity {
 		mRecorder.stop();
 		mRecorder.release();
 		
-		mDecoder.stop();
+		mDecoder.close();
 		
 		super.onDestroy();
 	}
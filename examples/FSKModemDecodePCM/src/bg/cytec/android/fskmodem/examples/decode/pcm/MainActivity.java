@@ -133,7 +133,7 @@ public class MainActivity extends ActionBarActivity {
 	@Override
 	protected void onDestroy() {
 		
-		mDecoder.stop();
+		mDecoder.close();
 		
 		super.onDestroy();
 	}
@@ -25,11 +25,9 @@ package bg.cytec.android.fskmodem.examples.decode.wav;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
 
 import bg.cytec.android.fskmodem.FSKConfig;
 import bg.cytec.android.fskmodem.FSKDecoder;
-import bg.cytec.android.fskmodem.FSKDecoder.FSKDecoderCallback;
 import bg.cytec.android.wav.WavToPCM;
 import bg.cytec.android.wav.WavToPCM.WavInfo;
 import android.support.v7.app.ActionBarActivity;
@@ -52,37 +50,21 @@ public class MainActivity extends ActionBarActivity {
 				//get information about the WAV file
 				WavInfo info = WavToPCM.readHeader(input);
 				
-				//get the raw PCM data
-				ByteBuffer pcm = ByteBuffer.wrap(WavToPCM.readWavPcm(info, input));
-
-				//the decoder has 1 second buffer (equals to sample rate), 
-				//so we have to fragment the entire file, 
-				//to prevent buffer overflow or rejection
-				byte[] buffer = new byte[1024];
+				//decode the whole PCM data at once on this thread, 
+				//there is no need to fragment it or to wait for the decoder
+				final String text = new String(mDecoder.decodeAll(WavToPCM.readWavPcm(info, input)));
+				
+				runOnUiThread(new Runnable() {
+					public void run() {
 						
-				//feed signal little by little... another way to do that is to 
-				//check the returning value of appendSignal(), it returns the 
-				//remaining space in the decoder signal buffer
-				while (pcm.hasRemaining()) {
-					
-					if (pcm.remaining() > 1024) {
-						pcm.get(buffer);
-					}
-					else {
-						buffer = new byte[pcm.remaining()];
+						TextView view = ((TextView) findViewById(R.id.result));
 						
-						pcm.get(buffer);
+						view.setText(text);
 					}
-					
-					mDecoder.appendSignal(buffer);
-					
-					Thread.sleep(100);
-				}
+				});
 				
 			} catch (IOException e) {
 				e.printStackTrace();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
 			}
 		}
 	};
@@ -102,23 +84,7 @@ public class MainActivity extends ActionBarActivity {
 
 		/// INIT FSK DECODER
 		
-		mDecoder = new FSKDecoder(mConfig, new FSKDecoderCallback() {
-			
-			@Override
-			public void decoded(byte[] newData) {
-				
-				final String text = new String(newData);
-				
-				runOnUiThread(new Runnable() {
-					public void run() {
-						
-						TextView view = ((TextView) findViewById(R.id.result));
-						
-						view.setText(view.getText()+text);
-					}
-				});
-			}
-		});
+		mDecoder = new FSKDecoder(mConfig, null); //decodeAll() returns the data, no callback needed
 		
 		///
 		
@@ -128,7 +94,7 @@ public class MainActivity extends ActionBarActivity {
 	@Override
 	protected void onDestroy() {
 		
-		mDecoder.stop();
+		mDecoder.close();
 		
 		super.onDestroy();
 	}
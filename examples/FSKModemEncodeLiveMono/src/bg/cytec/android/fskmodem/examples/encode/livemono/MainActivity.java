@@ -24,7 +24,6 @@
 package bg.cytec.android.fskmodem.examples.encode.livemono;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 import bg.cytec.android.fskmodem.FSKConfig;
 import bg.cytec.android.fskmodem.FSKDecoder;
@@ -52,35 +51,9 @@ public class MainActivity extends ActionBarActivity {
 		
 		@Override
 		public void run() {
-			byte[] data = ENCODER_DATA.getBytes();
+			//the encoder queues any amount of data
 			
-			if (data.length > FSKConfig.ENCODER_DATA_BUFFER_SIZE) {
-				//chunk data
-				
-				byte[] buffer = new byte[FSKConfig.ENCODER_DATA_BUFFER_SIZE];
-				
-				ByteBuffer dataFeed = ByteBuffer.wrap(data);
-				
-				while (dataFeed.remaining() > 0) {
-					
-					if (dataFeed.remaining() < buffer.length) {
-						buffer = new byte[dataFeed.remaining()];
-					}
-					
-					dataFeed.get(buffer);
-					
-					mEncoder.appendData(buffer);
-					
-					try {
-						Thread.sleep(100); //wait for encoder to do its job, to avoid buffer overflow and data rejection
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-			}
-			else {
-				mEncoder.appendData(data);
-			}
+			mEncoder.appendData(ENCODER_DATA.getBytes());
 		}
 	};
 
@@ -156,7 +129,7 @@ public class MainActivity extends ActionBarActivity {
 	
 	@Override
 	protected void onDestroy() {
-		mDecoder.stop();
+		mDecoder.close();
 		
 		mEncoder.stop();
 		
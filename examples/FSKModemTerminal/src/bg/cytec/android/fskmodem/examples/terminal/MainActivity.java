@@ -72,14 +72,17 @@ public class MainActivity extends ActionBarActivity {
 		@Override
 		public void run() {
 			
+			short[] data = new short[mBufferSize/2]; //the buffer size is in bytes, reused for every read
+			
 			while (mRecorder.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
 				
-				short[] data = new short[mBufferSize/2]; //the buffer size is in bytes
-				
 				// gets the audio output from microphone to short array samples
-				mRecorder.read(data, 0, mBufferSize/2);
+				int read = mRecorder.read(data, 0, mBufferSize/2);
 				
-				mDecoder.appendSignal(data);
+				if (read > 0) {
+					//the decoder copies the samples straight into its own buffer
+					mDecoder.appendSignal(data, 0, read);
+				}
 			}
 		}
 	};
@@ -198,6 +201,8 @@ public class MainActivity extends ActionBarActivity {
 			}
 		});
 		
+		mEncoder.setLinger(100); //lines sent in quick succession go out as one transmission
+		
 		///
 		
 		//make sure that the settings of the recorder match the settings of the decoder
@@ -227,7 +232,7 @@ public class MainActivity extends ActionBarActivity {
 	@Override
 	protected void onDestroy() {
 		
-		mDecoder.stop();
+		mDecoder.close();
 		mEncoder.stop();
 		
 		if (mRecorder != null && mRecorder.getState() == AudioRecord.STATE_INITIALIZED)
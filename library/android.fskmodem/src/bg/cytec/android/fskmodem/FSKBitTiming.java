@@ -0,0 +1,112 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+public class FSKBitTiming {
+
+	public static final double GAIN = 0.25; // share of the measured timing error corrected at each transition
+
+	// /
+
+	protected FSKConfig mConfig;
+
+	protected double[] mCoefficients; // Goertzel coefficient per tone, shared by the config
+
+	protected int mLastTone = -1; // tone of the previous bit, -1 if unknown
+
+	///
+
+	/**
+	 * Early-late timing recovery. At every change of tone between two bits
+	 * the transition is located in a window centered on the expected bit
+	 * boundary, from how much of each tone the window holds.
+	 * @param config
+	 */
+	public FSKBitTiming(FSKConfig config) {
+		mConfig = config;
+
+		mCoefficients = FSKWaveforms.getInstance(config).getCoefficients();
+	}
+
+	// /
+
+	/**
+	 * Forget the previous bit, e.g. when a new start bit is found
+	 */
+	public void reset() {
+		mLastTone = -1;
+	}
+
+	/**
+	 * @return samples the measuring window takes on each side of the bit boundary
+	 */
+	public int getReach() {
+		return mConfig.samplesPerBit / 2;
+	}
+
+	/**
+	 * Measure the boundary in front of the current bit
+	 * @param tone tone of the current bit, -1 if it is not clear
+	 * @param data signal, null if it does not reach back far enough
+	 * @param offset start of the window in data, getReach() samples before the bit
+	 * @return correction of the bit clock in 16.16 fixed point samples, positive if the bit starts later than expected
+	 */
+	public int update(int tone, short[] data, int offset) {
+		int correction = 0;
+
+		if (data != null && mLastTone >= 0 && tone >= 0 && tone != mLastTone) {
+			int length = getReach() * 2;
+
+			//amplitude of a partial tone grows with its length in the window
+			double before = Math.sqrt(power(data, offset, length, mLastTone));
+			double after = Math.sqrt(power(data, offset, length, tone));
+
+			if (before + after > 0) {
+				double error = (before / (before + after) - 0.5) * length; //samples the transition is after the boundary
+
+				correction = (int) Math.round(error * GAIN * (1 << FSKConfig.BIT_CLOCK_BITS));
+			}
+		}
+
+		mLastTone = tone;
+
+		return correction;
+	}
+
+	// /
+
+	protected double power(short[] data, int offset, int length, int tone) {
+		double coeff = mCoefficients[tone];
+		double s1 = 0, s2 = 0;
+
+		for (int i = offset; i < offset + length; i++) {
+			double s0 = data[i] + coeff * s1 - s2;
+			s2 = s1;
+			s1 = s0;
+		}
+
+		return s1 * s1 + s2 * s2 - coeff * s1 * s2;
+	}
+
+}
@@ -24,6 +24,7 @@
 package bg.cytec.android.fskmodem;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import android.media.AudioFormat;
 
@@ -42,6 +43,13 @@ public class FSKConfig {
 	public static final int CHANNELS_MONO = 1;
 	public static final int CHANNELS_STEREO = 2;
 
+	public static final int CHANNEL_LEFT = 0; // index of a channel in stereo frames
+	public static final int CHANNEL_RIGHT = 1;
+	public static final int CHANNEL_MIX = -1; // stereo input decoded as the average of both channels
+	public static final int CHANNEL_STRONGEST = -2; // stereo input decoded from the channel with more signal
+
+	public static final int SOFT_MODEM_MODE_CUSTOM = 0; // profile built with FSKConfig.Builder
+
 	public static final int SOFT_MODEM_MODE_1 = 1;
 	public static final int SOFT_MODEM_MODE_1_BAUD_RATE = 126;
 	public static final int SOFT_MODEM_MODE_1_LOW_FREQ = 882;
@@ -67,6 +75,19 @@ public class FSKConfig {
 	public static final int SOFT_MODEM_MODE_5_LOW_FREQ = 4900;
 	public static final int SOFT_MODEM_MODE_5_HIGH_FREQ = 7350;
 
+	public static final int SOFT_MODEM_MODE_6 = 6; // 4-FSK, 2 bits per symbol
+	public static final int SOFT_MODEM_MODE_6_BAUD_RATE = 1225;
+	public static final int SOFT_MODEM_MODE_6_LOW_FREQ = 4900;
+	public static final int SOFT_MODEM_MODE_6_HIGH_FREQ = 12250;
+	public static final int SOFT_MODEM_MODE_6_TONES = 4;
+
+	public static final int SOFT_MODEM_MODE_7 = 7; // 8-FSK, 3 bits per symbol
+	public static final int SOFT_MODEM_MODE_7_BAUD_RATE = 1225;
+	public static final int SOFT_MODEM_MODE_7_LOW_FREQ = 4900;
+	public static final int SOFT_MODEM_MODE_7_HIGH_FREQ = 13475;
+	public static final int SOFT_MODEM_MODE_7_TONES = 8;
+
+	// the zero crossing LOW range is capped half way to the high tone, whatever the threshold
 	public static final int THRESHOLD_1P = 1; // above and under; sums 2%
 	public static final int THRESHOLD_5P = 5; // above and under; sums 10%
 	public static final int THRESHOLD_10P = 10; // above and under; sums 20%
@@ -76,99 +97,504 @@ public class FSKConfig {
 	public static final int RMS_SILENCE_THRESHOLD_16BIT = 2000;
 
 	public static final int DECODER_DATA_BUFFER_SIZE = 8;
-	public static final int ENCODER_DATA_BUFFER_SIZE = 128;
+	public static final int ENCODER_DATA_BUFFER_SIZE = 128; // size of one segment of the encoder queue
+	public static final int ENCODER_QUEUE_LIMIT = 4096; // queued bytes before appendData() refuses data or blocks
+
+	public static final int BIT_CLOCK_BITS = 16; // fractional bits of the bit clock, samples per bit in 16.16 fixed point
+	public static final int BIT_CLOCK_MASK = (1 << BIT_CLOCK_BITS) - 1;
 
+	// defaults, FSKEncoder can change them with setPreCarrierBits() and so on
 	public static final int ENCODER_PRE_CARRIER_BITS = 3;
 	public static final int ENCODER_POST_CARRIER_BITS = 1;
 	public static final int ENCODER_SILENCE_BITS = 3;
 
 	// /
 
-	public int sampleRate;
-	public int pcmFormat;
-	public int channels;
-	public int modemMode;
+	public final int sampleRate;
+	public final int pcmFormat;
+	public final int channels;
+	public final int modemMode; // SOFT_MODEM_MODE_CUSTOM for profiles made with the builder
 
 	// /
 
-	public int samplesPerBit;
+	public final int samplesPerBit; // whole samples in one bit, rounded down
+	public final int bitLength; // exact samples per bit in 16.16 fixed point, the bit clock advances by this much
 
-	public int modemBaudRate;
-	public int modemFreqLow;
-	public int modemFreqHigh;
+	public final int modemBaudRate;
+	public final int modemFreqLow; // lowest tone, space and start bit
+	public final int modemFreqHigh; // highest tone, mark, carrier and stop bit
 
-	public int modemFreqLowThresholdHigh;
-	public int modemFreqHighThresholdHigh;
+	public final int modemTones; // evenly spaced from modemFreqLow to modemFreqHigh
+	public final int modemBitsPerSymbol;
 
-	public int rmsSilenceThreshold;
+	public final int dataBits; // data bits in one frame, lowest first
+	public final int stopBits;
 
-	public FSKConfig(int sampleRate, int pcmFormat, int channels,
-			int modemMode, int threshold) throws IOException {
-		this.sampleRate = sampleRate;
-		this.pcmFormat = pcmFormat;
-		this.channels = channels;
-		this.modemMode = modemMode;
+	public final int threshold; // frequency tolerance in percent
 
-		switch (modemMode) {
-		case SOFT_MODEM_MODE_1:
+	public final int modemFreqLowThresholdHigh; // at most half way to the high tone
+	public final int modemFreqHighThresholdHigh;
 
-			this.modemBaudRate = SOFT_MODEM_MODE_1_BAUD_RATE;
-			this.modemFreqLow = SOFT_MODEM_MODE_1_LOW_FREQ;
-			this.modemFreqHigh = SOFT_MODEM_MODE_1_HIGH_FREQ;
+	public final int crossingsLowThresholdHigh; // most zero crossings in one bit that still count as LOW
+	public final int crossingsHighThresholdHigh; // most zero crossings in one bit that still count as HIGH
 
-			break;
+	public final int rmsSilenceThreshold;
+	public final long silenceEnergyThreshold; // most energy (sum of squares) in one bit that still counts as silence
 
-		case SOFT_MODEM_MODE_2:
+	protected final int[] mFrequencies; // tone of each symbol value
 
-			this.modemBaudRate = SOFT_MODEM_MODE_2_BAUD_RATE;
-			this.modemFreqLow = SOFT_MODEM_MODE_2_LOW_FREQ;
-			this.modemFreqHigh = SOFT_MODEM_MODE_2_HIGH_FREQ;
+	/**
+	 * Builds custom modem profiles. Start from one of the SOFT_MODEM_MODE_*
+	 * presets or from an existing config and change what is needed.
+	 */
+	public static class Builder {
 
-			break;
+		protected int mSampleRate = SAMPLE_RATE_44100;
+		protected int mPcmFormat = PCM_16BIT;
+		protected int mChannels = CHANNELS_MONO;
+		protected int mModemMode = SOFT_MODEM_MODE_CUSTOM;
 
-		case SOFT_MODEM_MODE_3:
+		protected int mBaudRate = 0;
+		protected int mFreqLow = 0;
+		protected int mFreqHigh = 0;
+		protected int mTones = 2;
 
-			this.modemBaudRate = SOFT_MODEM_MODE_3_BAUD_RATE;
-			this.modemFreqLow = SOFT_MODEM_MODE_3_LOW_FREQ;
-			this.modemFreqHigh = SOFT_MODEM_MODE_3_HIGH_FREQ;
+		protected int mDataBits = 8;
+		protected int mStopBits = 1;
 
-			break;
+		protected int mThreshold = THRESHOLD_20P;
+		protected int mSilenceThreshold = -1; // default for the PCM format
 
-		case SOFT_MODEM_MODE_4:
+		public Builder() {
+		}
 
-			this.modemBaudRate = SOFT_MODEM_MODE_4_BAUD_RATE;
-			this.modemFreqLow = SOFT_MODEM_MODE_4_LOW_FREQ;
-			this.modemFreqHigh = SOFT_MODEM_MODE_4_HIGH_FREQ;
+		/**
+		 * Start from an existing config
+		 * @param config
+		 */
+		public Builder(FSKConfig config) {
+			mSampleRate = config.sampleRate;
+			mPcmFormat = config.pcmFormat;
+			mChannels = config.channels;
+			mModemMode = config.modemMode;
+
+			mBaudRate = config.modemBaudRate;
+			mFreqLow = config.modemFreqLow;
+			mFreqHigh = config.modemFreqHigh;
+			mTones = config.modemTones;
+
+			mDataBits = config.dataBits;
+			mStopBits = config.stopBits;
+
+			mThreshold = config.threshold;
+			mSilenceThreshold = config.rmsSilenceThreshold;
+		}
+
+		public Builder setSampleRate(int sampleRate) {
+			mSampleRate = sampleRate;
+
+			return this;
+		}
 
-			break;
+		/**
+		 * Also resets the silence threshold to the default of the format
+		 * @param pcmFormat
+		 * @return
+		 */
+		public Builder setPcmFormat(int pcmFormat) {
+			mPcmFormat = pcmFormat;
+			mSilenceThreshold = -1;
 
-		case SOFT_MODEM_MODE_5:
+			return this;
+		}
 
-			this.modemBaudRate = SOFT_MODEM_MODE_5_BAUD_RATE;
-			this.modemFreqLow = SOFT_MODEM_MODE_5_LOW_FREQ;
-			this.modemFreqHigh = SOFT_MODEM_MODE_5_HIGH_FREQ;
+		public Builder setChannels(int channels) {
+			mChannels = channels;
 
-			break;
+			return this;
 		}
 
-		if (this.sampleRate % this.modemBaudRate > 0) {
-			// wrong config
+		/**
+		 * Take baud rate and tones from one of the SOFT_MODEM_MODE_* presets
+		 * @param modemMode
+		 * @return
+		 */
+		public Builder setModemMode(int modemMode) {
+			mModemMode = modemMode;
+			mTones = 2;
+
+			switch (modemMode) {
+			case SOFT_MODEM_MODE_1:
+
+				mBaudRate = SOFT_MODEM_MODE_1_BAUD_RATE;
+				mFreqLow = SOFT_MODEM_MODE_1_LOW_FREQ;
+				mFreqHigh = SOFT_MODEM_MODE_1_HIGH_FREQ;
+
+				break;
+
+			case SOFT_MODEM_MODE_2:
+
+				mBaudRate = SOFT_MODEM_MODE_2_BAUD_RATE;
+				mFreqLow = SOFT_MODEM_MODE_2_LOW_FREQ;
+				mFreqHigh = SOFT_MODEM_MODE_2_HIGH_FREQ;
+
+				break;
+
+			case SOFT_MODEM_MODE_3:
+
+				mBaudRate = SOFT_MODEM_MODE_3_BAUD_RATE;
+				mFreqLow = SOFT_MODEM_MODE_3_LOW_FREQ;
+				mFreqHigh = SOFT_MODEM_MODE_3_HIGH_FREQ;
+
+				break;
+
+			case SOFT_MODEM_MODE_4:
+
+				mBaudRate = SOFT_MODEM_MODE_4_BAUD_RATE;
+				mFreqLow = SOFT_MODEM_MODE_4_LOW_FREQ;
+				mFreqHigh = SOFT_MODEM_MODE_4_HIGH_FREQ;
+
+				break;
+
+			case SOFT_MODEM_MODE_5:
+
+				mBaudRate = SOFT_MODEM_MODE_5_BAUD_RATE;
+				mFreqLow = SOFT_MODEM_MODE_5_LOW_FREQ;
+				mFreqHigh = SOFT_MODEM_MODE_5_HIGH_FREQ;
+
+				break;
+
+			case SOFT_MODEM_MODE_6:
+
+				mBaudRate = SOFT_MODEM_MODE_6_BAUD_RATE;
+				mFreqLow = SOFT_MODEM_MODE_6_LOW_FREQ;
+				mFreqHigh = SOFT_MODEM_MODE_6_HIGH_FREQ;
+				mTones = SOFT_MODEM_MODE_6_TONES;
+
+				break;
+
+			case SOFT_MODEM_MODE_7:
+
+				mBaudRate = SOFT_MODEM_MODE_7_BAUD_RATE;
+				mFreqLow = SOFT_MODEM_MODE_7_LOW_FREQ;
+				mFreqHigh = SOFT_MODEM_MODE_7_HIGH_FREQ;
+				mTones = SOFT_MODEM_MODE_7_TONES;
+
+				break;
+
+			default:
+
+				mBaudRate = 0; //build() rejects it
+			}
+
+			return this;
+		}
+
+		public Builder setBaudRate(int baudRate) {
+			mBaudRate = baudRate;
+			mModemMode = SOFT_MODEM_MODE_CUSTOM;
+
+			return this;
+		}
+
+		/**
+		 * @param low space tone, also the start bit
+		 * @param high mark tone, also the carrier and the stop bit
+		 * @return
+		 */
+		public Builder setFrequencies(int low, int high) {
+			mFreqLow = low;
+			mFreqHigh = high;
+			mModemMode = SOFT_MODEM_MODE_CUSTOM;
+
+			return this;
+		}
+
+		/**
+		 * @param tones 2, 4 or 8, more tones are spread evenly between the low and high frequency
+		 * @return
+		 */
+		public Builder setTones(int tones) {
+			mTones = tones;
+			mModemMode = SOFT_MODEM_MODE_CUSTOM;
+
+			return this;
+		}
+
+		/**
+		 * @param dataBits 5 to 8
+		 * @param stopBits 1 or 2
+		 * @return
+		 */
+		public Builder setFrameFormat(int dataBits, int stopBits) {
+			mDataBits = dataBits;
+			mStopBits = stopBits;
+
+			return this;
+		}
+
+		/**
+		 * @param threshold one of THRESHOLD_*, frequency tolerance in percent
+		 * @return
+		 */
+		public Builder setThreshold(int threshold) {
+			mThreshold = threshold;
+
+			return this;
+		}
+
+		/**
+		 * @param rms signal under this root mean square is silence
+		 * @return
+		 */
+		public Builder setSilenceThreshold(int rms) {
+			mSilenceThreshold = rms;
+
+			return this;
+		}
+
+		/**
+		 * Validate the profile and calculate everything derived from it. A bit
+		 * needs at least 8 samples and a cycle of the low tone, the high tone a
+		 * quarter of the baud rate below half the sample rate, and tones at least
+		 * the baud rate apart, twice the baud rate unless every tone is a whole
+		 * number of cycles per bit and every bit a whole number of samples.
+		 * @return
+		 * @throws IOException if the profile can not work
+		 */
+		public FSKConfig build() throws IOException {
+			return new FSKConfig(this);
+		}
+	}
+
+	///
+
+	public FSKConfig(int sampleRate, int pcmFormat, int channels,
+			int modemMode, int threshold) throws IOException {
+		this(new Builder()
+				.setSampleRate(sampleRate)
+				.setPcmFormat(pcmFormat)
+				.setChannels(channels)
+				.setModemMode(modemMode)
+				.setThreshold(threshold));
+	}
+
+	protected FSKConfig(Builder builder) throws IOException {
+		this.sampleRate = builder.mSampleRate;
+		this.pcmFormat = builder.mPcmFormat;
+		this.channels = builder.mChannels;
+		this.modemMode = builder.mModemMode;
+
+		this.modemBaudRate = builder.mBaudRate;
+		this.modemFreqLow = builder.mFreqLow;
+		this.modemFreqHigh = builder.mFreqHigh;
+		this.modemTones = builder.mTones;
+
+		this.dataBits = builder.mDataBits;
+		this.stopBits = builder.mStopBits;
+
+		this.threshold = builder.mThreshold;
+
+		if (this.modemMode < SOFT_MODEM_MODE_CUSTOM || this.modemMode > SOFT_MODEM_MODE_7) {
+			throw new IOException("Invalid modem mode");
+		}
+
+		if (this.pcmFormat != PCM_8BIT && this.pcmFormat != PCM_16BIT) {
+			throw new IOException("Invalid PCM format");
+		}
+
+		if (this.channels != CHANNELS_MONO && this.channels != CHANNELS_STEREO) {
+			throw new IOException("Invalid number of channels");
+		}
+
+		if (this.modemBaudRate <= 0 || this.sampleRate < this.modemBaudRate * 8
+				|| this.sampleRate / this.modemBaudRate > Short.MAX_VALUE) {
+			// wrong config, any ratio works but the tones of shorter bits get confused
 
 			throw new IOException("Invalid sample rate or baudrate");
 		}
 
+		if (this.modemFreqLow < this.modemBaudRate || this.modemFreqLow >= this.modemFreqHigh
+				|| this.modemFreqHigh * 4L + this.modemBaudRate > this.sampleRate * 2L) {
+			// tones can not be told apart, the low tone needs a cycle per bit and the high tone
+			// a quarter of the baud rate below half the sample rate
+
+			throw new IOException("Invalid sample rate or modem frequencies");
+		}
+
+		if (this.modemTones != 2 && this.modemTones != 4 && this.modemTones != 8) {
+			throw new IOException("Invalid number of tones");
+		}
+
+		if (this.dataBits < 5 || this.dataBits > 8 || this.stopBits < 1 || this.stopBits > 2) {
+			throw new IOException("Invalid frame format");
+		}
+
 		this.samplesPerBit = this.sampleRate / this.modemBaudRate;
+		this.bitLength = (int) Math.round(this.sampleRate * (double) (1 << BIT_CLOCK_BITS) / this.modemBaudRate);
+
+		this.modemBitsPerSymbol = Integer.numberOfTrailingZeros(this.modemTones);
+		this.mFrequencies = new int[this.modemTones];
+
+		boolean wholeCycles = true; // every tone fits the detection frame of samplesPerBit in whole cycles
 
-		this.modemFreqLowThresholdHigh = this.modemFreqLow
-				+ Math.round((this.modemFreqLow * threshold) / 100.0f);
+		for (int i = 0; i < this.modemTones; i++) {
+			this.mFrequencies[i] = this.modemFreqLow + i * (this.modemFreqHigh - this.modemFreqLow) / (this.modemTones - 1);
+
+			wholeCycles &= ((long) this.mFrequencies[i] * this.samplesPerBit % this.sampleRate == 0);
+		}
+
+		int spacing = this.mFrequencies[1] - this.mFrequencies[0]; // the tones are evenly spaced, give or take a Hz
+
+		for (int i = 2; i < this.modemTones; i++) {
+			spacing = Math.min(spacing, this.mFrequencies[i] - this.mFrequencies[i-1]);
+		}
+
+		if (spacing < this.modemBaudRate || (spacing < this.modemBaudRate * 2 && !wholeCycles)) {
+			// tones closer than the baud rate blur together, closer than twice the baud rate
+			// no detector tells them apart unless they are orthogonal over the frame it looks at
+
+			throw new IOException("Invalid modem frequencies or baudrate");
+		}
+
+		//a tolerance wider than half the spacing would take in the high tone
+		this.modemFreqLowThresholdHigh = Math.min(this.modemFreqLow
+				+ Math.round((this.modemFreqLow * threshold) / 100.0f), (this.modemFreqLow + this.modemFreqHigh) / 2);
 		this.modemFreqHighThresholdHigh = this.modemFreqHigh
 				+ Math.round((this.modemFreqHigh * threshold) / 100.0f);
 
-		if (this.pcmFormat == FSKConfig.PCM_8BIT) {
+		this.crossingsLowThresholdHigh = maxCrossings(this.modemFreqLowThresholdHigh, this.samplesPerBit);
+		this.crossingsHighThresholdHigh = maxCrossings(this.modemFreqHighThresholdHigh, this.samplesPerBit);
+
+		if (builder.mSilenceThreshold >= 0) {
+			this.rmsSilenceThreshold = builder.mSilenceThreshold;
+		} else if (this.pcmFormat == FSKConfig.PCM_8BIT) {
 			this.rmsSilenceThreshold = FSKConfig.RMS_SILENCE_THRESHOLD_8BIT;
-		} else if (this.pcmFormat == FSKConfig.PCM_16BIT) {
+		} else {
 			this.rmsSilenceThreshold = FSKConfig.RMS_SILENCE_THRESHOLD_16BIT;
 		}
+
+		this.silenceEnergyThreshold = maxSilenceEnergy(this.samplesPerBit);
+	}
+
+	protected FSKConfig(FSKConfig other, int channels) {
+		this.sampleRate = other.sampleRate;
+		this.pcmFormat = other.pcmFormat;
+		this.channels = channels;
+		this.modemMode = other.modemMode;
+
+		this.samplesPerBit = other.samplesPerBit;
+		this.bitLength = other.bitLength;
+
+		this.modemBaudRate = other.modemBaudRate;
+		this.modemFreqLow = other.modemFreqLow;
+		this.modemFreqHigh = other.modemFreqHigh;
+
+		this.modemTones = other.modemTones;
+		this.modemBitsPerSymbol = other.modemBitsPerSymbol;
+
+		this.dataBits = other.dataBits;
+		this.stopBits = other.stopBits;
+
+		this.threshold = other.threshold;
+
+		this.modemFreqLowThresholdHigh = other.modemFreqLowThresholdHigh;
+		this.modemFreqHighThresholdHigh = other.modemFreqHighThresholdHigh;
+
+		this.crossingsLowThresholdHigh = other.crossingsLowThresholdHigh;
+		this.crossingsHighThresholdHigh = other.crossingsHighThresholdHigh;
+
+		this.rmsSilenceThreshold = other.rmsSilenceThreshold;
+		this.silenceEnergyThreshold = other.silenceEnergyThreshold;
+
+		this.mFrequencies = other.mFrequencies;
+	}
+
+	// /
+
+	/**
+	 * Copy this config with a different number of channels
+	 * @param channels
+	 * @return
+	 */
+	public FSKConfig withChannels(int channels) {
+		return new FSKConfig(this, channels);
+	}
+
+	/**
+	 * @return true if every bit takes the same whole number of samples
+	 */
+	public boolean isWholeBit() {
+		return (bitLength & BIT_CLOCK_MASK) == 0;
+	}
+
+	/**
+	 * @param tone
+	 * @return frequency of the given symbol value
+	 */
+	public int getFrequency(int tone) {
+		return mFrequencies[tone];
+	}
+
+	/**
+	 * @return symbols sent for the data bits of one frame
+	 */
+	public int getDataSymbols() {
+		return (dataBits + modemBitsPerSymbol - 1) / modemBitsPerSymbol;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof FSKConfig)) {
+			return false;
+		}
+
+		FSKConfig config = (FSKConfig) other;
+
+		return sampleRate == config.sampleRate && pcmFormat == config.pcmFormat
+				&& channels == config.channels && modemBaudRate == config.modemBaudRate
+				&& modemFreqLow == config.modemFreqLow && modemFreqHigh == config.modemFreqHigh
+				&& modemTones == config.modemTones && dataBits == config.dataBits
+				&& stopBits == config.stopBits && threshold == config.threshold
+				&& rmsSilenceThreshold == config.rmsSilenceThreshold;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(new int[] {sampleRate, pcmFormat, channels, modemBaudRate,
+				modemFreqLow, modemFreqHigh, modemTones, dataBits, stopBits, threshold, rmsSilenceThreshold});
+	}
+
+	// /
+
+	/**
+	 * Crossing count limit equivalent to a frequency limit, the frequency is
+	 * whole cycles (crossings/2) over the duration of numSamples, rounded to Hz
+	 * @param frequency
+	 * @param numSamples
+	 * @return most zero crossings in numSamples samples that still measure at or below frequency
+	 */
+	public int maxCrossings(int frequency, int numSamples) {
+		//round(cycles*sampleRate/numSamples) <= frequency is 2*cycles*sampleRate < (2*frequency+1)*numSamples
+		long limit = (2L * frequency + 1) * numSamples;
+
+		if (limit <= 0) {
+			return -1;
+		}
+
+		long cycles = (limit - 1) / (2L * sampleRate);
+
+		return (int) Math.min(cycles * 2 + 1, numSamples);
+	}
+
+	/**
+	 * Energy limit equivalent to the RMS silence threshold,
+	 * sqrt(energy/numSamples) <= threshold is energy <= threshold^2*numSamples
+	 * @param numSamples
+	 * @return most energy (sum of squares) in numSamples samples that still counts as silence
+	 */
+	public long maxSilenceEnergy(int numSamples) {
+		return (long) rmsSilenceThreshold * rmsSilenceThreshold * numSamples;
 	}
 
 }
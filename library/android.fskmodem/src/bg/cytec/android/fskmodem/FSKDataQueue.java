@@ -0,0 +1,176 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+public class FSKDataQueue {
+
+	public static final int SEGMENT_SIZE = FSKConfig.ENCODER_DATA_BUFFER_SIZE; // bytes per segment
+
+	public static final int MAX_POOLED_SEGMENTS = 32; // empty segments kept for reuse
+
+	protected static class Segment {
+
+		protected byte[] mData = new byte[SEGMENT_SIZE];
+
+		protected int mLength = 0; // bytes written to this segment
+
+		protected Segment mNext;
+	}
+
+	// /
+
+	protected Segment mHead; // segment read from
+
+	protected Segment mTail; // segment written to
+
+	protected int mHeadPosition = 0; // next byte to read in the head segment
+
+	protected int mSize = 0; // how many bytes are queued
+
+	protected Segment mPool; // empty segments, linked through mNext
+
+	protected int mPoolSize = 0;
+
+	///
+
+	/**
+	 * Create unbounded byte queue made of fixed size segments. Emptied
+	 * segments are pooled and reused, queued data is never moved.
+	 */
+	public FSKDataQueue() {
+
+	}
+
+	// /
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	/**
+	 * Queue a copy of the given bytes, the caller may reuse its array right away
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	public void put(byte[] data, int offset, int length) {
+		while (length > 0) {
+			if (mTail == null || mTail.mLength == SEGMENT_SIZE) {
+				addSegment();
+			}
+
+			int count = Math.min(length, SEGMENT_SIZE - mTail.mLength);
+
+			System.arraycopy(data, offset, mTail.mData, mTail.mLength, count);
+
+			mTail.mLength += count;
+			mSize += count;
+
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * @return first queued byte, the queue must not be empty
+	 */
+	public byte peek() {
+		return mHead.mData[mHeadPosition];
+	}
+
+	/**
+	 * Remove the first queued byte, the queue must not be empty
+	 */
+	public void remove() {
+		mHeadPosition++;
+		mSize--;
+
+		if (mHeadPosition == mHead.mLength) {
+			//head segment is used up
+
+			removeSegment();
+		}
+	}
+
+	/**
+	 * Remove all queued bytes
+	 */
+	public void clear() {
+		while (mHead != null) {
+			removeSegment();
+		}
+
+		mSize = 0;
+	}
+
+	// /
+
+	protected void addSegment() {
+		Segment segment = mPool;
+
+		if (segment != null) {
+			mPool = segment.mNext;
+			mPoolSize--;
+
+			segment.mNext = null;
+		}
+		else {
+			segment = new Segment();
+		}
+
+		if (mTail != null) {
+			mTail.mNext = segment;
+		}
+		else {
+			mHead = segment;
+			mHeadPosition = 0;
+		}
+
+		mTail = segment;
+	}
+
+	protected void removeSegment() {
+		Segment segment = mHead;
+
+		mHead = segment.mNext;
+		mHeadPosition = 0;
+
+		if (mHead == null) {
+			mTail = null;
+		}
+
+		if (mPoolSize < MAX_POOLED_SEGMENTS) {
+			segment.mLength = 0;
+			segment.mNext = mPool;
+
+			mPool = segment;
+			mPoolSize++;
+		}
+	}
+
+}
@@ -23,10 +23,17 @@
 
 package bg.cytec.android.fskmodem;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
 
-public class FSKDecoder {
+public class FSKDecoder implements Closeable {
+	
+	public static final int STREAM_BUFFER_SIZE = 4096; // bytes read at once by decodeAll(InputStream)
 
 	public interface FSKDecoderCallback {
 		/**
@@ -37,41 +44,69 @@ public class FSKDecoder {
 	}
 	
 	/**
-	 * Decoding state-driven thread
+	 * Decoding thread, parks until there is enough signal for a frame
 	 */
 	protected Runnable mProcessor = new Runnable() {
 		
 		@Override
 		public void run() {
+			
+			Thread self = Thread.currentThread();
 
-			while (mRunning) {
+			while (true) {
 				
 				synchronized (mSignal) {
 					
-					switch (mDecoderStatus) {
-						case IDLE:
-							stop();
-							
-							break;
-						case SEARCHING_SIGNAL:case SEARCHING_START_BIT:
-							processIterationSearch();
-							
-							break;
-							
-						case DECODING:
-							processIterationDecode();
-							
-							break;
-							
+					while (mRunning && mThread == self && !hasFrame()) {
+						try {
+							mSignal.wait();
+						}
+						catch (InterruptedException e) {
+							//check if we are still running
+						}
+					}
+					
+					if (!mRunning || mThread != self) {
+						break; //stopped or replaced by a new thread
 					}
 				}
+				
+				process();
+			}
+		}
+	};
+	
+	/**
+	 * Pool task, runs one slice of the state machine and queues itself again if there is more to do
+	 */
+	protected Runnable mPoolTask = new Runnable() {
+		
+		@Override
+		public void run() {
+			
+			try {
+				process(mPool.getSliceIterations());
+			}
+			finally {
+				//even if the callback throws, or the decoder is never scheduled again
+				boolean more;
+				
+				synchronized (mSignal) {
+					more = (!mClosed && (hasFrame() || !mDecoderStatus.equals(DecoderStatus.IDLE)));
+					
+					mScheduled = more;
+				}
+				
+				if (more) {
+					schedulePool(); //back to the end of the queue
+				}
 			}
 		}
 	};
 	
 	///
 	
-	protected enum STATE {
+	public enum STATE {
 		HIGH, LOW, SILENCE, UNKNOWN
 	}
 	
@@ -89,25 +124,49 @@ public class FSKDecoder {
 	
 	protected boolean mRunning = false;
 	
+	protected boolean mClosed = false;
+	
+	protected final Object mProcessLock = new Object(); // held while the state machine runs
+	
+	protected FSKDecoderPool mPool; // when set, the pool threads run the state machine instead of mThread
+	
+	protected boolean mScheduled = false; // a pool task is queued or running
+	
 	protected DecoderStatus mDecoderStatus = DecoderStatus.IDLE;
 	
 	protected DecoderStatus mDecoderStatusPaused = DecoderStatus.IDLE;
 
 	// /
 
-	protected ShortBuffer mSignal;
+	protected FSKRingBuffer mSignal;
 
-	protected ShortBuffer mFrame;
-
-	protected StringBuffer mBitBuffer; // concat 0 and 1 to build a binary representation of a byte
+	protected int mBits = 0; // data bits received so far, first bit is the least significant
 
 	protected int mCurrentBit = 0;
 	
-	protected int mSignalEnd = 0; // where is the end of the signal in mSignal
+	protected int mSignalEnd = 0; // where is the end of the signal in mSignal, relative to its first sample
+	
+	protected int mSignalPointer = 0; //where is the current processing poing in mSignal, relative to its first sample
 	
-	protected int mSignalPointer = 0; //where is the current processing poing in mSignal
+	protected int mBitClock = 0; //fraction of a sample the exact bit position is ahead of mSignalPointer, 16.16 fixed point
 	
 	protected int mSignalBufferSize = 0;
+	
+	protected FSKSlidingWindow mWindow; // running energy and zero crossings while searching
+	
+	protected int mSearchStep = 1; // samples the search skips while it is on steady carrier
+	
+	protected int mSearchHigh = -1; // carrier position the last big step was taken from, -1 after a single sample step
+	
+	protected int mSearchFine = 0; // search goes one sample at a time up to this position, the edge is somewhere before it
+	
+	protected FSKToneDetector mToneDetector;
+	
+	protected FSKBitTiming mTiming; // corrects the bit clock while decoding, null if disabled
+	
+	protected int mChannel = FSKConfig.CHANNEL_MIX; // which channel of stereo input is decoded
+	
+	protected int mStrongestChannel = FSKConfig.CHANNEL_LEFT; // picked by CHANNEL_STRONGEST
 
 	// /
 
@@ -115,6 +174,8 @@ public class FSKDecoder {
 
 	protected int mDataLength = 0;
 	
+	protected ByteArrayOutputStream mOutput; // collects decoded data instead of the callback while decodeAll() runs
+	
 	// /
 
 	/**
@@ -123,27 +184,65 @@ public class FSKDecoder {
 	 * @param callback
 	 */
 	public FSKDecoder(FSKConfig config, FSKDecoderCallback callback) {
+		this(config, callback, config.sampleRate); // 1 second buffer
+	}
+	
+	/**
+	 * Create FSK Decoder instance to feed with audio data
+	 * @param config
+	 * @param callback
+	 * @param signalBufferSize capacity of the signal buffer in samples, at least two frames
+	 */
+	public FSKDecoder(FSKConfig config, FSKDecoderCallback callback, int signalBufferSize) {
+		this(config, callback, signalBufferSize, null);
+	}
+	
+	/**
+	 * Create FSK Decoder instance that is run by a shared pool of threads
+	 * @param config
+	 * @param callback
+	 * @param pool
+	 */
+	public FSKDecoder(FSKConfig config, FSKDecoderCallback callback, FSKDecoderPool pool) {
+		this(config, callback, config.sampleRate, pool); // 1 second buffer
+	}
+	
+	/**
+	 * Create FSK Decoder instance to feed with audio data
+	 * @param config
+	 * @param callback
+	 * @param signalBufferSize capacity of the signal buffer in samples, at least two frames
+	 * @param pool shared decoding threads, or null to use a thread of its own
+	 */
+	public FSKDecoder(FSKConfig config, FSKDecoderCallback callback, int signalBufferSize, FSKDecoderPool pool) {
 		mConfig = config;
+		
+		mPool = pool;
 
 		mCallback = callback;
 
-		mSignalBufferSize = mConfig.sampleRate; // 1 second buffer
+		mSignalBufferSize = Math.max(signalBufferSize, mConfig.samplesPerBit * 2);
 		
 		allocateBufferSignal();
-		
-		allocateBufferFrame();
 	
 		allocateBufferData();
-	}
-
-	@Override
-	protected void finalize() throws Throwable {
 		
-		stop();
+		mWindow = new FSKSlidingWindow(mConfig.samplesPerBit);
+		
+		mSearchStep = Math.max(1, mConfig.samplesPerBit / 4); //a window a quarter frame past a start bit is mostly low tone, never HIGH
+		
+		mTiming = new FSKBitTiming(mConfig);
 		
-		super.finalize();
+		if (mConfig.modemMode >= FSKConfig.SOFT_MODEM_MODE_1 && mConfig.modemMode <= FSKConfig.SOFT_MODEM_MODE_4) {
+			mToneDetector = new FSKZeroCrossingDetector(mConfig);
+		}
+		else {
+			//the zero crossing thresholds suit the tones of these presets,
+			//custom profiles, mode 5 and the M-ary modes go through Goertzel filters
+			mToneDetector = new FSKGoertzelDetector(mConfig);
+		}
 	}
-	
+
 	// /
 
 	protected void notifyCallback(byte[] data) {
@@ -152,48 +251,150 @@ public class FSKDecoder {
 		}
 	}
 	
+	/**
+	 * Start the decoding thread if it is not running yet
+	 */
 	protected void start() {
-		if (!mRunning) {
-			if (!mDecoderStatusPaused.equals(DecoderStatus.IDLE)) {
-				setStatus(mDecoderStatusPaused); //resume task
-			}
-			else {
-				setStatus(DecoderStatus.SEARCHING_SIGNAL); //start new process
+		synchronized (mSignal) {
+			if (!mRunning && mPool == null) {
+				mRunning = true;
+				
+				mThread = new Thread(mProcessor);
+				mThread.setPriority(Thread.MIN_PRIORITY);
+				mThread.setDaemon(true);
+				mThread.start();
 			}
-			
-			mRunning = true;
-			
-			mThread = new Thread(mProcessor);
-			mThread.setPriority(Thread.MIN_PRIORITY);
-			mThread.start();
 		}
 	}
 	
 	/**
-	 * Stop decoding process
+	 * Stop decoding thread, it will be started again when new signal is appended
 	 */
 	public void stop() {
-		if (mRunning) {
-			if (mThread != null && mThread.isAlive()) {
+		synchronized (mSignal) {
+			if (mRunning) {
 				mRunning = false;
 				
-				mThread.interrupt();
+				mSignal.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Hand the decoder over to the pool
+	 */
+	protected void schedulePool() {
+		if (!mPool.schedule(mPoolTask)) {
+			synchronized (mSignal) {
+				mScheduled = false; //pool is closed, try again with the next signal
+			}
+		}
+	}
+	
+	/**
+	 * Stop decoding thread, wait for it to finish and drop all queued signal.
+	 * The decoder can not be used after that. The thread holds a reference 
+	 * to the decoder, so it will not be garbage collected before this is called.
+	 */
+	@Override
+	public void close() {
+		Thread thread;
+		
+		synchronized (mSignal) {
+			mClosed = true;
+			
+			thread = mThread;
+			
+			stop();
+		}
+		
+		if (thread != null && thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
 		}
+		
+		clearSignal();
+	}
+	
+	public boolean isClosed() {
+		return mClosed;
+	}
+	
+	/**
+	 * Replace the tone detection strategy. Zero crossing counting is used by default
+	 * for modes 1 to 4, Goertzel filters otherwise.
+	 * Detectors keep state between calls and should not be shared between decoders.
+	 * @param detector
+	 */
+	public void setToneDetector(FSKToneDetector detector) {
+		synchronized (mProcessLock) {
+			mToneDetector = detector;
+		}
+	}
+	
+	public FSKToneDetector getToneDetector() {
+		return mToneDetector;
+	}
+	
+	/**
+	 * Follow the bit timing of the sender while decoding, on by default.
+	 * Without it bits are sampled where the start bit put them, which drifts
+	 * apart with clock differences over long runs of bytes.
+	 * @param enabled
+	 */
+	public void setTimingRecovery(boolean enabled) {
+		synchronized (mProcessLock) {
+			mTiming = enabled ? new FSKBitTiming(mConfig) : null;
+		}
+	}
+	
+	public boolean isTimingRecovery() {
+		return (mTiming != null);
+	}
+	
+	/**
+	 * Choose how stereo input is decoded. CHANNEL_MIX averages both channels,
+	 * which halves a signal present on one channel only and cancels one that
+	 * is phase inverted. CHANNEL_LEFT or CHANNEL_RIGHT decode that channel alone,
+	 * CHANNEL_STRONGEST follows the channel with more signal. Use FSKStereoDecoder
+	 * to decode both channels separately. Mono input is not affected.
+	 * @param channel one of the FSKConfig.CHANNEL_ constants
+	 */
+	public void setChannel(int channel) {
+		synchronized (mSignal) {
+			mChannel = channel;
+		}
+	}
+	
+	public int getChannel() {
+		return mChannel;
 	}
 	
 	protected void allocateBufferSignal() {
-		mSignal = ShortBuffer.allocate(mSignalBufferSize);
+		mSignal = new FSKRingBuffer(mSignalBufferSize + history());
 	}
 	
-	protected void allocateBufferFrame() {
-		mFrame = ShortBuffer.allocate(mConfig.samplesPerBit); // one frame contains one bit
+	/**
+	 * @return samples kept in front of the processing point, on top of the requested buffer size
+	 */
+	protected int history() {
+		return mConfig.samplesPerBit / 2;
 	}
 
 	protected void allocateBufferData() {
 		mData = ByteBuffer.allocate(FSKConfig.DECODER_DATA_BUFFER_SIZE); // maximum bytes
 	}
 	
+	protected void resetBufferData() {
+		mData.clear(); //reuse the same buffer
+		
+		mDataLength = 0;
+	}
+	
 	protected void nextStatus() {
 		switch (mDecoderStatus) {
 			case IDLE:
@@ -219,253 +420,778 @@ public class FSKDecoder {
 		mDecoderStatus = status;
 		mDecoderStatusPaused = paused;
 	}
-
-	protected short[] byteArrayToShortArray(byte[] data) {
-		int size = data.length;
-		short[] result = new short[size];
-
-		for (int i = 0; i < size; i++) {
-			result[i] = (short) data[i];
-		}
-
-		return result;
-	}
-	
-	protected short[] convertToMono(short[] data) {
-		
-		short[] monoData = new short[data.length/2];
-		
-		for (int i = 0; i < data.length-1; i+=2) {
-			int mixed = ((int)(data[i] + data[i+1]))/2;
-			
-			monoData[i/2] = (short) mixed;
-		}
-		
-		return monoData;
-	}
-
-	// /
 	
-	protected void trimSignal() {
-		
-		if (mSignalPointer <= mSignalEnd) {
-		
-			short[] currentData = mSignal.array();
-			short[] remainingData = new short[mSignalEnd - mSignalPointer];
-			
-			for (int i = 0; i < remainingData.length; i++) {
-				remainingData[i] = currentData[mSignalPointer+i];
-			}
-			
-			allocateBufferSignal();
-			mSignal.put(remainingData);
-			mSignal.rewind();
-			
-			mSignalPointer = 0;
-			mSignalEnd = remainingData.length;
+	protected void resume() {
+		if (!mDecoderStatusPaused.equals(DecoderStatus.IDLE)) {
+			setStatus(mDecoderStatusPaused); //resume task
 		}
 		else {
-			clearSignal();
+			setStatus(DecoderStatus.SEARCHING_SIGNAL); //start new process
 		}
 	}
-
+	
 	/**
-	 * Use this method to feed 8bit PCM data to the decoder
-	 * @param data
-	 * @return samples space left in the buffer
+	 * Call with mSignal locked
+	 * @return true if there is enough signal to process another frame
 	 */
-	public int appendSignal(byte[] data) {
-		return appendSignal(byteArrayToShortArray(data));
+	protected boolean hasFrame() {
+		return (mSignal.size() - mSignalPointer >= mConfig.samplesPerBit);
 	}
-
+	
 	/**
-	 * Use this method to feed 16bit PCM data to the decoder
-	 * @param data
-	 * @return samples space left in the buffer
+	 * Run the state machine until it runs out of signal
 	 */
-	public int appendSignal(short[] data) {
-		
-		synchronized (mSignal) {
-			short[] monoData;
+	protected void process() {
+		process(Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Run the state machine until it runs out of signal or the given number of steps
+	 * @param maxIterations
+	 */
+	protected void process(int maxIterations) {
+		synchronized (mProcessLock) {
 			
-			if (mConfig.channels == FSKConfig.CHANNELS_STEREO) {
-				monoData = convertToMono(data);
+			synchronized (mSignal) {
+				mSignalEnd = mSignal.size(); //signal appended after this point waits for the next pass
 			}
-			else {
-				monoData = data;
+			
+			if (mDecoderStatus.equals(DecoderStatus.IDLE)) {
+				resume();
 			}
 			
-			if (mSignalEnd + monoData.length > mSignal.capacity()) {
-				//the buffer will overflow... attempt to trim data
+			for (int i = 0; i < maxIterations && !mDecoderStatus.equals(DecoderStatus.IDLE); i++) {
 				
-				if ((mSignalEnd + monoData.length)-mSignalPointer <= mSignal.capacity()) {
-					//we can cut off part of the data to fit the rest
-					
-					trimSignal();
-				}
-				else {
-					//the decoder is gagging
-					
-					return (mSignal.capacity() - (mSignalEnd + monoData.length)); // refuse data and tell the amount of overflow
+				switch (mDecoderStatus) {
+					case SEARCHING_SIGNAL:case SEARCHING_START_BIT:
+						processIterationSearch();
+						
+						break;
+						
+					case DECODING:
+						processIterationDecode();
+						
+						break;
+						
+					default:
+						break;
 				}
 			}
-			
-			mSignal.position(mSignalEnd);
-			mSignal.put(monoData);
-
-			mSignalEnd += monoData.length;
-			
-			start(); //if idle
-			
-			return (mSignal.capacity() - mSignalEnd); //return the remaining amount of space in the buffer
 		}
 	}
 
 	/**
-	 * Use this method to set 8bit PCM data to the decoder
+	 * Copy samples into the signal buffer, stereo goes through mixFrame().
+	 * Call with mSignal locked.
 	 * @param data
-	 * @return samples space left in the buffer
+	 * @param offset
+	 * @param length
+	 * @return number of samples taken from data, may be less than length if the buffer is full
 	 */
-	public int setSignal(byte[] data) {
-		allocateBufferData(); //reset data buffer
+	protected int putSignal(short[] data, int offset, int length) {
+		if (mConfig.channels == FSKConfig.CHANNELS_STEREO) {
+			int frames = Math.min(length / 2, mSignal.remaining());
+			
+			if (mChannel == FSKConfig.CHANNEL_STRONGEST) {
+				long left = 0, right = 0;
+				
+				for (int i = offset; i < offset + frames * 2; i += 2) {
+					left += data[i] * data[i];
+					right += data[i+1] * data[i+1];
+				}
+				
+				pickChannel(left, right);
+			}
+			
+			for (int i = offset; i < offset + frames * 2; i += 2) {
+				mSignal.put(mixFrame(data[i], data[i+1]));
+			}
+			
+			return frames * 2;
+		}
 		
-		clearSignal();
-
-		return appendSignal(byteArrayToShortArray(data));
+		return mSignal.put(data, offset, length);
 	}
-
+	
 	/**
-	 * Use this method to set 16bit PCM data to the decoder
+	 * Copy 8bit samples into the signal buffer, stereo goes through mixFrame().
+	 * Call with mSignal locked.
 	 * @param data
-	 * @return samples space left in the buffer
+	 * @param offset
+	 * @param length
+	 * @return number of samples taken from data, may be less than length if the buffer is full
 	 */
-	public int setSignal(short[] data) {
-		allocateBufferData(); //reset data buffer
+	protected int putSignal(byte[] data, int offset, int length) {
+		int step = mConfig.channels == FSKConfig.CHANNELS_STEREO ? 2 : 1;
+		int frames = Math.min(length / step, mSignal.remaining());
 		
-		clearSignal();
-
-		return appendSignal(data);
-	}
-
-	/**
-	 * Use this method to destroy all data currently queued for decoding
-	 * @return samples space left in the buffer
-	 */
-	public int clearSignal() {
-		synchronized (mSignal) {
-			allocateBufferSignal();
-			
-			mSignalEnd = 0;
-			mSignalPointer = 0;
+		if (step == 2 && mChannel == FSKConfig.CHANNEL_STRONGEST) {
+			long left = 0, right = 0;
 			
-			return mSignal.capacity();
-		}
-	}
-	
-	///
-
-	protected int calcFrequencyZerocrossing(short[] data) {
-		int numSamples = data.length;
-		int numCrossing = 0;
-
-		for (int i = 0; i < numSamples-1; i++) {
-			if ((data[i] > 0 && data[i+1] <= 0)
-					|| (data[i] < 0 && data[i+1] >= 0)) {
+			for (int i = offset; i < offset + frames * 2; i += 2) {
+				int l = pcm8(data[i]);
+				int r = pcm8(data[i+1]);
 				
-				numCrossing++;
+				left += l * l;
+				right += r * r;
 			}
+			
+			pickChannel(left, right);
 		}
 		
-		double numSecondsRecorded = (double) numSamples
-				/ (double) mConfig.sampleRate;
-		double numCycles = numCrossing / 2;
-		double frequency = numCycles / numSecondsRecorded;
-
-		return (int) Math.round(frequency);
-	}
-
-	protected double rootMeanSquared(short[] data) {
-		double ms = 0;
-		
-		for (int i = 0; i < data.length; i++) {
-			ms += data[i] * data[i];
+		for (int i = offset; i < offset + frames * step; i += step) {
+			if (step == 2) {
+				mSignal.put(mixFrame(pcm8(data[i]), pcm8(data[i+1])));
+			}
+			else {
+				mSignal.put((short) pcm8(data[i]));
+			}
 		}
 		
-		ms /= data.length;
-		
-		return Math.sqrt(ms);
+		return frames * step;
 	}
 	
-	protected STATE determineState(int frequency, double rms) {
-		
-		STATE state = STATE.UNKNOWN;
-		
-		if (rms <= mConfig.rmsSilenceThreshold) {
-			state = STATE.SILENCE;
-		}
-		else if (frequency <= mConfig.modemFreqLowThresholdHigh) {
-			state = STATE.LOW;
-		}
-		else if (frequency <= mConfig.modemFreqHighThresholdHigh) {
-			state = STATE.HIGH;
+	/**
+	 * Copy samples into the signal buffer, stereo goes through mixFrame().
+	 * Call with mSignal locked.
+	 * @param data read from its position, which is moved past the samples taken
+	 * @param length
+	 * @return number of samples taken from data, may be less than length if the buffer is full
+	 */
+	protected int putSignal(ShortBuffer data, int length) {
+		if (data.hasArray()) {
+			int count = putSignal(data.array(), data.arrayOffset() + data.position(), length);
+			
+			data.position(data.position() + count);
+			
+			return count;
 		}
 		
-		return state;
-	}
-	
-	protected short[] getFrameData(int position) {
-		mSignal.position(position);
+		//direct buffer, read sample by sample
+		int step = mConfig.channels == FSKConfig.CHANNELS_STEREO ? 2 : 1;
+		int frames = Math.min(length / step, mSignal.remaining());
 		
-		allocateBufferFrame();
+		if (step == 2 && mChannel == FSKConfig.CHANNEL_STRONGEST) {
+			long left = 0, right = 0;
+			
+			for (int i = data.position(); i < data.position() + frames * 2; i += 2) {
+				left += data.get(i) * data.get(i);
+				right += data.get(i+1) * data.get(i+1);
+			}
+			
+			pickChannel(left, right);
+		}
 		
-		for (int j = 0; j < mConfig.samplesPerBit; j++) {
-			mFrame.put(j, mSignal.get());
+		for (int i = 0; i < frames; i++) {
+			if (step == 2) {
+				mSignal.put(mixFrame(data.get(), data.get()));
+			}
+			else {
+				mSignal.put(data.get());
+			}
 		}
 		
-		return mFrame.array();
+		return frames * step;
 	}
 	
-	protected void flushData() {
-		if (mDataLength > 0) {
-			byte[] data = new byte[mDataLength];
+	/**
+	 * Copy samples into the signal buffer, stereo goes through mixFrame().
+	 * 16bit samples are read in the byte order of data. Call with mSignal locked.
+	 * @param data read from its position, which is moved past the samples taken
+	 * @param length in samples
+	 * @return number of samples taken from data, may be less than length if the buffer is full
+	 */
+	protected int putSignal(ByteBuffer data, int length) {
+		if (mConfig.pcmFormat == FSKConfig.PCM_8BIT && data.hasArray()) {
+			int count = putSignal(data.array(), data.arrayOffset() + data.position(), length);
 			
-			for (int i = 0; i < mDataLength; i++) {
-				data[i] = mData.get(i);
-			}
+			data.position(data.position() + count);
 			
-			allocateBufferData();
+			return count;
+		}
+		
+		int step = mConfig.channels == FSKConfig.CHANNELS_STEREO ? 2 : 1;
+		int frames = Math.min(length / step, mSignal.remaining());
+		
+		if (step == 2 && mChannel == FSKConfig.CHANNEL_STRONGEST) {
+			long left = 0, right = 0;
+			int size = (mConfig.pcmFormat == FSKConfig.PCM_8BIT) ? 1 : 2;
 			
-			mDataLength = 0;
+			for (int i = data.position(); i < data.position() + frames * 2 * size; i += 2 * size) {
+				int l = (size == 1) ? pcm8(data.get(i)) : data.getShort(i);
+				int r = (size == 1) ? pcm8(data.get(i+1)) : data.getShort(i+2);
+				
+				left += l * l;
+				right += r * r;
+			}
 			
-			notifyCallback(data);
+			pickChannel(left, right);
 		}
-	}
+		
+		for (int i = 0; i < frames; i++) {
+			if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
+				mSignal.put((step == 2) ? mixFrame(pcm8(data.get()), pcm8(data.get())) : (short) pcm8(data.get()));
+			}
+			else {
+				mSignal.put((step == 2) ? mixFrame(data.getShort(), data.getShort()) : data.getShort());
+			}
+		}
+		
+		return frames * step;
+	}
+	
+	/**
+	 * 8bit PCM is unsigned, silence is 128, the way FSKEncoder writes it and AudioRecord delivers it
+	 * @param sample
+	 * @return signed sample value
+	 */
+	protected static int pcm8(byte sample) {
+		return (sample & 0xFF) - 128;
+	}
+	
+	/**
+	 * @param left
+	 * @param right
+	 * @return the sample decoded from a stereo frame
+	 */
+	protected short mixFrame(int left, int right) {
+		int channel = (mChannel == FSKConfig.CHANNEL_STRONGEST) ? mStrongestChannel : mChannel;
+		
+		switch (channel) {
+			case FSKConfig.CHANNEL_LEFT:
+				return (short) left;
+			case FSKConfig.CHANNEL_RIGHT:
+				return (short) right;
+			default:
+				return (short) ((left + right) / 2);
+		}
+	}
+	
+	/**
+	 * Follow the channel with more signal for CHANNEL_STRONGEST, switching
+	 * only when the other channel is clearly stronger
+	 * @param left energy of the left channel in the new samples
+	 * @param right energy of the right channel in the new samples
+	 */
+	protected void pickChannel(long left, long right) {
+		if (mStrongestChannel == FSKConfig.CHANNEL_LEFT && right > left * 2) {
+			mStrongestChannel = FSKConfig.CHANNEL_RIGHT;
+		}
+		else if (mStrongestChannel == FSKConfig.CHANNEL_RIGHT && left > right * 2) {
+			mStrongestChannel = FSKConfig.CHANNEL_LEFT;
+		}
+	}
+	
+	/**
+	 * Check if the signal buffer can take the samples. Call with mSignal locked.
+	 * @param length
+	 * @return zero if the samples fit, otherwise the negative amount of overflow
+	 */
+	protected int checkSignalOverflow(int length) {
+		if (mClosed) {
+			return -length; //refuse data, nothing will decode it
+		}
+		
+		int frames = length / mConfig.channels; //stereo is mixed down to mono
+		
+		if (frames > mSignal.remaining()) {
+			//the decoder is gagging, processed signal is dropped by the decoding thread as it goes
+			
+			return (mSignal.remaining() - frames);
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * Wake up the decoding thread or hand the decoder over to the pool
+	 * @return samples space left in the buffer
+	 */
+	protected int signalAppended() {
+		boolean schedule = false;
+		int remaining;
+		
+		synchronized (mSignal) {
+			if (mPool != null) {
+				schedule = !mScheduled;
+				
+				mScheduled = true;
+			}
+			else {
+				start(); //if stopped
+				
+				mSignal.notifyAll(); //wake up the decoding thread
+			}
+			
+			remaining = mSignal.remaining();
+		}
+		
+		if (schedule) {
+			schedulePool(); //outside of the lock, the executor may run the task right away
+		}
+		
+		return remaining;
+	}
+
+	// /
+	
+	protected void trimSignal() {
+		
+		synchronized (mSignal) {
+			if (mSignalPointer <= mSignalEnd) {
+				
+				int keep = Math.min(mSignalPointer, history()); //bit timing looks back into the last bit
+				
+				int discard = mSignalPointer - keep;
+				
+				mSignal.discard(discard); //wraps in place, nothing is copied
+				
+				mSignalPointer = keep;
+				mSignalEnd = mSignal.size();
+				
+				mWindow.reset(); //positions moved
+				
+				mSearchHigh = (mSearchHigh >= discard) ? mSearchHigh - discard : -1;
+				mSearchFine = Math.max(0, mSearchFine - discard);
+			}
+			else {
+				clearSignal();
+			}
+		}
+	}
+
+	/**
+	 * Use this method to feed 8bit PCM data to the decoder, unsigned as AudioRecord delivers it
+	 * @param data
+	 * @return samples space left in the buffer
+	 */
+	public int appendSignal(byte[] data) {
+		return appendSignal(data, 0, data.length);
+	}
+	
+	/**
+	 * Use this method to feed part of an array of 8bit PCM data to the decoder
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return samples space left in the buffer, negative amount of overflow if the data is refused
+	 */
+	public int appendSignal(byte[] data, int offset, int length) {
+		synchronized (mSignal) {
+			int overflow = checkSignalOverflow(length);
+			
+			if (overflow < 0) {
+				return overflow; // refuse data and tell the amount of overflow
+			}
+			
+			putSignal(data, offset, length);
+		}
+		
+		return signalAppended();
+	}
+
+	/**
+	 * Use this method to feed 16bit PCM data to the decoder
+	 * @param data
+	 * @return samples space left in the buffer
+	 */
+	public int appendSignal(short[] data) {
+		return appendSignal(data, 0, data.length);
+	}
+	
+	/**
+	 * Use this method to feed part of an array of 16bit PCM data to the decoder,
+	 * samples are copied straight into the signal buffer
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return samples space left in the buffer, negative amount of overflow if the data is refused
+	 */
+	public int appendSignal(short[] data, int offset, int length) {
+		synchronized (mSignal) {
+			int overflow = checkSignalOverflow(length);
+			
+			if (overflow < 0) {
+				return overflow; // refuse data and tell the amount of overflow
+			}
+			
+			putSignal(data, offset, length);
+		}
+		
+		return signalAppended();
+	}
+	
+	/**
+	 * Use this method to feed 16bit PCM data to the decoder from a buffer, 
+	 * direct buffers are read in place. All remaining samples are taken and
+	 * the buffer position is moved to its limit, unless the data is refused.
+	 * @param data
+	 * @return samples space left in the buffer, negative amount of overflow if the data is refused
+	 */
+	public int appendSignal(ShortBuffer data) {
+		synchronized (mSignal) {
+			int overflow = checkSignalOverflow(data.remaining());
+			
+			if (overflow < 0) {
+				return overflow; // refuse data and tell the amount of overflow
+			}
+			
+			putSignal(data, data.remaining());
+		}
+		
+		return signalAppended();
+	}
+	
+	/**
+	 * Use this method to feed raw PCM data in the configured format to the 
+	 * decoder, e.g. a direct buffer filled by AudioRecord.read(ByteBuffer, int).
+	 * All remaining samples are taken and the buffer position is moved past 
+	 * them, unless the data is refused.
+	 * @param data
+	 * @param order byte order of 16bit samples, usually ByteOrder.nativeOrder()
+	 * @return samples space left in the buffer, negative amount of overflow if the data is refused
+	 */
+	public int appendSignal(ByteBuffer data, ByteOrder order) {
+		int length = (mConfig.pcmFormat == FSKConfig.PCM_8BIT) ? data.remaining() : data.remaining() / 2;
+		
+		synchronized (mSignal) {
+			int overflow = checkSignalOverflow(length);
+			
+			if (overflow < 0) {
+				return overflow; // refuse data and tell the amount of overflow
+			}
+			
+			ByteOrder previous = data.order();
+			
+			data.order(order);
+			
+			putSignal(data, length);
+			
+			data.order(previous);
+		}
+		
+		return signalAppended();
+	}
+
+	/**
+	 * Use this method to set 8bit PCM data to the decoder
+	 * @param data
+	 * @return samples space left in the buffer
+	 */
+	public int setSignal(byte[] data) {
+		synchronized (mProcessLock) {
+			resetBufferData(); //reset data buffer
+			
+			clearSignal();
+		}
+
+		return appendSignal(data);
+	}
+
+	/**
+	 * Use this method to set 16bit PCM data to the decoder
+	 * @param data
+	 * @return samples space left in the buffer
+	 */
+	public int setSignal(short[] data) {
+		synchronized (mProcessLock) {
+			resetBufferData(); //reset data buffer
+			
+			clearSignal();
+		}
+
+		return appendSignal(data);
+	}
+
+	/**
+	 * Use this method to destroy all data currently queued for decoding
+	 * @return samples space left in the buffer
+	 */
+	public int clearSignal() {
+		synchronized (mProcessLock) {
+			synchronized (mSignal) {
+				mSignal.clear();
+				
+				mSignalEnd = 0;
+				mSignalPointer = 0;
+				
+				mWindow.reset();
+				
+				mSearchHigh = -1;
+				mSearchFine = 0;
+				
+				return mSignal.capacity();
+			}
+		}
+	}
+	
+	///
+	
+	/**
+	 * Decode 16bit PCM data of any length on the calling thread. Signal queued 
+	 * with appendSignal() is dropped and the callback is not called, the data
+	 * decoded from the whole signal is returned instead.
+	 * @param data
+	 * @return decoded data
+	 */
+	public byte[] decodeAll(short[] data) {
+		return decodeAll(data, 0, data.length);
+	}
+	
+	/**
+	 * Decode part of 16bit PCM data on the calling thread
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return decoded data
+	 */
+	public byte[] decodeAll(short[] data, int offset, int length) {
+		synchronized (mProcessLock) {
+			beginDecodeAll();
+			
+			try {
+				feedAll(data, offset, length);
+				
+				return endDecodeAll();
+			}
+			finally {
+				mOutput = null;
+			}
+		}
+	}
+	
+	/**
+	 * Decode unsigned 8bit PCM data of any length on the calling thread. Signal queued 
+	 * with appendSignal() is dropped and the callback is not called, the data
+	 * decoded from the whole signal is returned instead.
+	 * @param data
+	 * @return decoded data
+	 */
+	public byte[] decodeAll(byte[] data) {
+		return decodeAll(data, 0, data.length);
+	}
+	
+	/**
+	 * Decode part of 8bit PCM data on the calling thread
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return decoded data
+	 */
+	public byte[] decodeAll(byte[] data, int offset, int length) {
+		synchronized (mProcessLock) {
+			beginDecodeAll();
+			
+			try {
+				feedAll(data, offset, length);
+				
+				return endDecodeAll();
+			}
+			finally {
+				mOutput = null;
+			}
+		}
+	}
+	
+	/**
+	 * Decode PCM data from a stream until its end on the calling thread. 16bit
+	 * samples are read in little endian byte order. Signal queued with 
+	 * appendSignal() is dropped and the callback is not called, the data
+	 * decoded from the whole signal is returned instead.
+	 * @param input
+	 * @return decoded data
+	 * @throws IOException
+	 */
+	public byte[] decodeAll(InputStream input) throws IOException {
+		byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+		short[] samples = new short[STREAM_BUFFER_SIZE / 2];
+		
+		synchronized (mProcessLock) {
+			beginDecodeAll();
+			
+			try {
+				int length = 0; //bytes in buffer
+				int read;
+				
+				while ((read = input.read(buffer, length, buffer.length - length)) != -1) {
+					length += read;
+					
+					int used; //bytes taken from buffer
+					
+					if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
+						used = feedAll(buffer, 0, length);
+					}
+					else {
+						int count = length / 2;
+						
+						for (int i = 0; i < count; i++) {
+							samples[i] = (short) ((buffer[i*2] & 0xFF) | (buffer[i*2+1] << 8));
+						}
+						
+						used = feedAll(samples, 0, count) * 2;
+					}
+					
+					//keep incomplete sample or stereo frame for the next read
+					System.arraycopy(buffer, used, buffer, 0, length - used);
+					
+					length -= used;
+				}
+				
+				return endDecodeAll();
+			}
+			finally {
+				mOutput = null;
+			}
+		}
+	}
+	
+	protected void beginDecodeAll() {
+		clearSignal();
+		
+		resetBufferData();
+		
+		setStatus(DecoderStatus.IDLE);
+		
+		mCurrentBit = 0;
+		
+		mOutput = new ByteArrayOutputStream();
+	}
+	
+	protected byte[] endDecodeAll() {
+		flushData(); //whatever is left from the last transmission
+		
+		setStatus(DecoderStatus.IDLE);
+		
+		clearSignal();
+		
+		return mOutput.toByteArray();
+	}
+	
+	/**
+	 * Feed and process all whole samples, call with mProcessLock held
+	 * @return number of samples taken
+	 */
+	protected int feedAll(short[] data, int offset, int length) {
+		int taken = 0;
+		int count;
+		
+		do {
+			synchronized (mSignal) {
+				count = putSignal(data, offset + taken, length - taken);
+			}
+			
+			process(); //consume everything that fits, the buffer is trimmed as it goes
+			
+			taken += count;
+		}
+		while (count > 0 && taken < length); //nothing taken means an incomplete stereo frame is left
+		
+		return taken;
+	}
+	
+	/**
+	 * Feed and process all whole 8bit samples, call with mProcessLock held
+	 * @return number of samples taken
+	 */
+	protected int feedAll(byte[] data, int offset, int length) {
+		int taken = 0;
+		int count;
+		
+		do {
+			synchronized (mSignal) {
+				count = putSignal(data, offset + taken, length - taken);
+			}
+			
+			process(); //consume everything that fits, the buffer is trimmed as it goes
+			
+			taken += count;
+		}
+		while (count > 0 && taken < length); //nothing taken means an incomplete stereo frame is left
+		
+		return taken;
+	}
+	
+	///
+
+	protected void flushData() {
+		if (mDataLength > 0) {
+			if (mOutput != null) {
+				//decodeAll() is running, just collect the data
+				
+				mOutput.write(mData.array(), 0, mDataLength);
+				
+				resetBufferData();
+				
+				return;
+			}
+			
+			byte[] data = new byte[mDataLength]; //handed over to the callback, the only allocation per flush
+			
+			System.arraycopy(mData.array(), 0, data, 0, mDataLength);
+			
+			resetBufferData();
+			
+			notifyCallback(data);
+		}
+	}
 	
 	///
 	
 	protected void processIterationSearch() {
 		if (mSignalPointer <= mSignalEnd-mConfig.samplesPerBit) {
 			
-			short[] frameData = getFrameData(mSignalPointer);
+			//slide the window instead of recalculating the whole frame
+			mWindow.moveTo(mSignal.array(), mSignal.offset(mSignalPointer));
 			
-			int freq = calcFrequencyZerocrossing(frameData);
+			if (mSearchHigh < 0 && mToneDetector.isSilence(mWindow.getEnergy(), mWindow.getLength())) {
+				//nothing can start before the end of a silent frame, skip all of it
+				mSignalPointer += mConfig.samplesPerBit;
+				
+				return;
+			}
 			
-			STATE state = determineState(freq, rootMeanSquared(frameData));
+			STATE state = mToneDetector.search(mWindow, mSignal.array());
+			
+			if (mSearchHigh >= 0 && !state.equals(STATE.HIGH)) {
+				//the carrier ended within the last big step, go back and find the edge sample by sample
+				mSearchFine = mSignalPointer;
+				mSignalPointer = mSearchHigh + 1;
+				mSearchHigh = -1;
+				
+				return;
+			}
+			
+			mSearchHigh = -1;
 			
 			if (state.equals(STATE.HIGH) && mDecoderStatus.equals(DecoderStatus.SEARCHING_SIGNAL)) {
 				//found pre-carrier bit
 				nextStatus(); //start searching for start bit
 			}
 			
-			if (mDecoderStatus.equals(DecoderStatus.SEARCHING_START_BIT) && freq == mConfig.modemFreqLow && state.equals(STATE.LOW)) {
+			if (mDecoderStatus.equals(DecoderStatus.SEARCHING_START_BIT) && state.equals(STATE.LOW)) {
 				//found start bit
 				
-				mSignalPointer += (mConfig.samplesPerBit/2); //shift 0.5 period forward
+				//shift 0.5 period forward
+				mBitClock = 0;
+				
+				if (mTiming != null) {
+					mTiming.reset();
+				}
+				
+				nextBit(mConfig.bitLength / 2);
 				
 				nextStatus(); //begin decoding
 				
 				return;
 			}
+			
+			if (mDecoderStatus.equals(DecoderStatus.SEARCHING_START_BIT) && state.equals(STATE.HIGH) && mSignalPointer > mSearchFine) {
+				//steady carrier, a start bit can not be aligned within the next few samples
+				mSearchHigh = mSignalPointer;
+				mSignalPointer += mSearchStep;
+				
+				return;
+			}
 				
 			mSignalPointer++;
 		}
@@ -474,27 +1200,28 @@ public class FSKDecoder {
 			
 			flushData();
 			
-			setStatus(DecoderStatus.IDLE);
+			setStatus(DecoderStatus.IDLE, mDecoderStatus); //keep searching where we left off, no matter how the signal was chunked
 		}
 	}
 	
 	protected void processIterationDecode() {
 		
+		if (mConfig.modemTones > 2) {
+			processIterationDecodeSymbols();
+			
+			return;
+		}
+		
 		if (mSignalPointer <= mSignalEnd-mConfig.samplesPerBit) {
 	
-			short[] frameData = getFrameData(mSignalPointer);
-			
-			double rms = rootMeanSquared(frameData);
-			
-			int freq = calcFrequencyZerocrossing(frameData);
-			
-			STATE state = determineState(freq, rms);
+			//read the frame in place
+			STATE state = mToneDetector.detect(mSignal.array(), mSignal.offset(mSignalPointer), mConfig.samplesPerBit);
 			
 			if (mCurrentBit == 0 && state.equals(STATE.LOW)) {
 				//start bit
 				
 				//prepare buffers
-				mBitBuffer = new StringBuffer();
+				mBits = 0;
 				mCurrentBit++;
 			}
 			else if (mCurrentBit == 0 && state.equals(STATE.HIGH)) {
@@ -503,42 +1230,101 @@ public class FSKDecoder {
 				//go searching for a new transmission
 				setStatus(DecoderStatus.SEARCHING_START_BIT);
 			}
-			else if (mCurrentBit == 9 && state.equals(STATE.HIGH)) {
+			else if (mCurrentBit == mConfig.dataBits + 1 && state.equals(STATE.HIGH)) {
 				//end bit
 				
-				try {
-					mData.put((byte) Integer.parseInt(mBitBuffer.toString(), 2));
-					
-					mDataLength++;
-					
-					if (mDataLength == mData.capacity()) {
-						//the data buffer is full, puke back to application and cleanup
-						
-						flushData();
-					}
-				}
-				catch (Exception e) {
-					e.printStackTrace();
+				putData((byte) mBits);
+				
+				mCurrentBit = (mConfig.stopBits > 1) ? mCurrentBit + 1 : 0;
+			}
+			else if (mCurrentBit > mConfig.dataBits + 1 && state.equals(STATE.HIGH)) {
+				//second end bit
+				
+				mCurrentBit = 0;
+			}
+			else if (mCurrentBit > 0 && mCurrentBit <= mConfig.dataBits && (state.equals(STATE.HIGH) || state.equals(STATE.LOW))) {
+				
+				if (state.equals(STATE.HIGH)) {
+					mBits |= 1 << (mCurrentBit - 1);
 				}
 				
+				mCurrentBit++;
+			}
+			else {
+				//corrupted data, clear bit buffer
+				
+				mBits = 0;
 				mCurrentBit = 0;
+				
+				setStatus(DecoderStatus.SEARCHING_START_BIT);
 			}
-			else if (mCurrentBit > 0 && mCurrentBit < 9 && (state.equals(STATE.HIGH) || state.equals(STATE.LOW))) {
+			
+			trackTiming(state.equals(STATE.HIGH) ? mConfig.modemTones - 1 : (state.equals(STATE.LOW) ? 0 : -1));
+			
+			nextBit(mConfig.bitLength);
+		}
+		else {
+			
+			trimSignal(); //get rid of data that is already processed
+			
+			flushData();
+			
+			setStatus(DecoderStatus.IDLE, DecoderStatus.DECODING); //we need to wait for more data to continue decoding
+		}
+	}
+
+	protected void processIterationDecodeSymbols() {
+		//M-ary modes, lowest tone is the start bit, highest the end bit, symbols in between carry modemBitsPerSymbol each
+		
+		int symbols = mConfig.getDataSymbols();
+		int last = mConfig.modemTones - 1;
+		
+		if (mSignalPointer <= mSignalEnd-mConfig.samplesPerBit) {
+			
+			//read the frame in place
+			int tone = mToneDetector.detectTone(mSignal.array(), mSignal.offset(mSignalPointer), mConfig.samplesPerBit);
+			
+			if (mCurrentBit == 0 && tone == 0) {
+				//start bit
 				
-				mBitBuffer.insert(0, (state.equals(STATE.HIGH) ? 1 : 0));
+				mBits = 0;
+				mCurrentBit++;
+			}
+			else if (mCurrentBit == 0 && tone == last) {
+				//post-carrier bit(s)
+				
+				setStatus(DecoderStatus.SEARCHING_START_BIT);
+			}
+			else if (mCurrentBit == symbols + 1 && tone == last) {
+				//end bit
+				
+				putData((byte) mBits);
+				
+				mCurrentBit = (mConfig.stopBits > 1) ? mCurrentBit + 1 : 0;
+			}
+			else if (mCurrentBit > symbols + 1 && tone == last) {
+				//second end bit
+				
+				mCurrentBit = 0;
+			}
+			else if (mCurrentBit > 0 && mCurrentBit <= symbols && tone >= 0) {
+				
+				mBits |= tone << ((mCurrentBit - 1) * mConfig.modemBitsPerSymbol);
 				
 				mCurrentBit++;
 			}
 			else {
 				//corrupted data, clear bit buffer
 				
-				mBitBuffer = new StringBuffer();
+				mBits = 0;
 				mCurrentBit = 0;
 				
 				setStatus(DecoderStatus.SEARCHING_START_BIT);
 			}
 			
-			mSignalPointer += mConfig.samplesPerBit;
+			trackTiming(tone);
+			
+			nextBit(mConfig.bitLength);
 		}
 		else {
 			
@@ -549,5 +1335,48 @@ public class FSKDecoder {
 			setStatus(DecoderStatus.IDLE, DecoderStatus.DECODING); //we need to wait for more data to continue decoding
 		}
 	}
+	
+	/**
+	 * Let the timing recovery correct the bit clock at the start of the current bit
+	 * @param tone detected in the current bit, -1 if none
+	 */
+	protected void trackTiming(int tone) {
+		if (mTiming == null) {
+			return;
+		}
+		
+		int reach = mTiming.getReach();
+		
+		if (mSignalPointer >= reach && mSignalPointer + reach <= mSignalEnd) {
+			mBitClock += mTiming.update(tone, mSignal.array(), mSignal.offset(mSignalPointer - reach));
+		}
+		else {
+			mTiming.update(tone, null, 0);
+		}
+	}
+	
+	/**
+	 * Move the signal pointer with the bit clock, fractions of a sample add up
+	 * @param length 16.16 fixed point
+	 */
+	protected void nextBit(int length) {
+		mBitClock += length;
+		
+		mSignalPointer += mBitClock >> FSKConfig.BIT_CLOCK_BITS;
+		
+		mBitClock &= FSKConfig.BIT_CLOCK_MASK;
+	}
+	
+	protected void putData(byte data) {
+		mData.put(data);
+		
+		mDataLength++;
+		
+		if (mDataLength == mData.capacity()) {
+			//the data buffer is full, puke back to application and cleanup
+			
+			flushData();
+		}
+	}
 
 }
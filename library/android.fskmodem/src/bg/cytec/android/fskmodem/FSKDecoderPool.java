@@ -0,0 +1,118 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+public class FSKDecoderPool implements Closeable {
+
+	public static final int DEFAULT_SLICE_ITERATIONS = 4096; // state machine steps before giving way to other decoders
+
+	// /
+
+	protected Executor mExecutor;
+
+	protected boolean mOwnExecutor = false; // shut it down on close
+
+	protected int mSliceIterations = DEFAULT_SLICE_ITERATIONS;
+
+	///
+
+	/**
+	 * Create pool with its own fixed number of decoding threads
+	 * @param threads
+	 */
+	public FSKDecoderPool(int threads) {
+		this(Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "FSKDecoderPool");
+				thread.setPriority(Thread.MIN_PRIORITY);
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		}));
+
+		mOwnExecutor = true;
+	}
+
+	/**
+	 * Create pool that runs decoders on the given executor, e.g. a virtual
+	 * thread per task executor. A decoder never has more than one task
+	 * submitted at a time, so its signal is always processed in order.
+	 * @param executor
+	 */
+	public FSKDecoderPool(Executor executor) {
+		mExecutor = executor;
+	}
+
+	// /
+
+	/**
+	 * How many state machine steps a decoder may take before it is put back
+	 * at the end of the queue, so busy streams do not starve the rest
+	 * @param iterations
+	 */
+	public void setSliceIterations(int iterations) {
+		mSliceIterations = Math.max(iterations, 1);
+	}
+
+	public int getSliceIterations() {
+		return mSliceIterations;
+	}
+
+	/**
+	 * Queue decoder task
+	 * @param task
+	 * @return false if the pool is closed
+	 */
+	protected boolean schedule(Runnable task) {
+		try {
+			mExecutor.execute(task);
+
+			return true;
+		}
+		catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Shut down the decoding threads if the pool created them
+	 */
+	@Override
+	public void close() {
+		if (mOwnExecutor) {
+			((ExecutorService) mExecutor).shutdown();
+		}
+	}
+
+}
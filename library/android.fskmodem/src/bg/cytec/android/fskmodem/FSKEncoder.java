@@ -47,26 +47,16 @@ public class FSKEncoder {
 			while (mRunning) {
 				synchronized (mData) {
 					
-					switch (mEncoderStatus) {
-						case IDLE:
-							stop();
-							
-							break;
-						case PRE_CARRIER:case POST_CARRIER:
-							processIterationCarrier();
-							
-							break;
-							
-						case ENCODING:
-							processIterationEncoding();
-							
-							break;
-							
-						case SILENCE:
-							processIterationSilence();
-							
-							break;
-							
+					if (mEncoderStatus.equals(EncoderStatus.IDLE)) {
+						if (mData.isEmpty() && !waitData(mLinger)) {
+							stop(); //nothing came in the linger window
+						}
+						else {
+							setStatus(EncoderStatus.PRE_CARRIER); //data came in during the last transmission
+						}
+					}
+					else {
+						processIteration();
 					}
 				}
 			}
@@ -102,14 +92,48 @@ public class FSKEncoder {
 	protected ByteBuffer mSignalPCM8;
 	
 	protected int mSignalLength = 0;
+	
+	protected FSKWaveforms mWaveforms; // precalculated signal for each bit state
+	
+	protected boolean mFrames = false; // whole byte frames are rendered, see FSKWaveforms.setFrameBudget()
+	
+	protected boolean mPhaseContinuous = false; // modulate with the oscillator instead of restarting each bit
+	
+	protected int mPhase = 0; // oscillator phase accumulator, full circle is 2^32
+	
+	protected boolean mPull = false; // the signal is pulled with read(), no thread and no callback
+	
+	protected boolean mIdleCarrier = false; // read() sends carrier instead of silence while idle
+	
+	///
+	
+	protected byte[] mTarget8; // where the signal is written, the signal buffer or the array passed to read()
+	
+	protected short[] mTarget16;
+	
+	protected int mTargetOffset = 0;
+	
+	protected int mTargetCapacity = 0;
+	
+	///
+	
+	protected byte[] mPendingPCM8; // rest of a bit that did not fit in the array passed to read()
+	
+	protected short[] mPendingPCM16;
+	
+	protected int mPendingOffset = 0;
+	
+	protected int mPendingLength = 0; // samples left, or frames left when the bit comes from the oscillator
+	
+	protected int mPendingStep = 0; // oscillator phase step of the pending bit
+	
+	protected boolean mPendingIdle = false; // the pending bit is idle silence or carrier, not data
 		
 	///
 	
-	protected ByteBuffer mData;
-
-	protected int mDataLength = 0;
+	protected final FSKDataQueue mData = new FSKDataQueue(); // the first byte is being sent
 	
-	protected int mDataPointer = 0;
+	protected int mQueueLimit = FSKConfig.ENCODER_QUEUE_LIMIT;
 	
 	///
 	
@@ -119,6 +143,16 @@ public class FSKEncoder {
 	
 	protected int mSilenceBits = 0;
 	
+	protected int mLinger = 0; // milliseconds to wait for more data before ending a transmission
+	
+	protected int mLingerBits = 0; // the same in bits, carrier sent while waiting in pull mode
+	
+	protected int mBitCounter = 0; // bits sent of the current carrier or silence
+	
+	protected int mCurrentBit = 0; // symbol sent next of the current byte, 0 is the start bit
+
+	protected int mBitClock = 0; // fraction of a sample the bits sent so far are short of their exact length, 16.16 fixed point
+	
 	///
 	
 	/**
@@ -127,10 +161,25 @@ public class FSKEncoder {
 	 * @param callback
 	 */
 	public FSKEncoder(FSKConfig config, FSKEncoderCallback callback) {
+		this(config, callback, false);
+	}
+	
+	/**
+	 * Create FSK Encoder instance to feed with byte array data and pull the
+	 * signal from with read(), no thread is started
+	 * @param config
+	 */
+	public FSKEncoder(FSKConfig config) {
+		this(config, null, true);
+	}
+	
+	protected FSKEncoder(FSKConfig config, FSKEncoderCallback callback, boolean pull) {
 		mConfig = config;
 
 		mCallback = callback;
 		
+		mPull = pull;
+		
 		///
 		
 		mPreCarrierBits = FSKConfig.ENCODER_PRE_CARRIER_BITS; //(int) Math.ceil(mConfig.sampleRate * 40.0f / 1000.0f / mConfig.samplesPerBit);
@@ -139,9 +188,11 @@ public class FSKEncoder {
 		
 		///
 		
-		allocateBufferSignal();
+		mWaveforms = FSKWaveforms.getInstance(mConfig);
 		
-		allocateBufferData();
+		mFrames = mWaveforms.renderFrames();
+		
+		allocateBufferSignal();
 	}
 
 	@Override
@@ -161,6 +212,16 @@ public class FSKEncoder {
 	}
 	
 	protected void start() {
+		if (mPull) {
+			//read() drives the encoding
+			
+			if (mEncoderStatus.equals(EncoderStatus.IDLE)) {
+				setStatus(EncoderStatus.PRE_CARRIER);
+			}
+			
+			return;
+		}
+		
 		if (!mRunning) {
 			
 			setStatus(EncoderStatus.PRE_CARRIER);
@@ -186,6 +247,101 @@ public class FSKEncoder {
 		}
 	}
 	
+	/**
+	 * Keep the phase of the signal continuous across bits and transmissions (CPFSK)
+	 * instead of starting each bit at phase zero. This keeps the spectrum narrow
+	 * and avoids clicks at bit boundaries.
+	 * @param enabled
+	 */
+	public void setPhaseContinuous(boolean enabled) {
+		mPhaseContinuous = enabled;
+	}
+	
+	public boolean isPhaseContinuous() {
+		return mPhaseContinuous;
+	}
+	
+	/**
+	 * Carrier sent before the data of each transmission
+	 * @param bits
+	 */
+	public void setPreCarrierBits(int bits) {
+		mPreCarrierBits = bits;
+	}
+	
+	public int getPreCarrierBits() {
+		return mPreCarrierBits;
+	}
+	
+	/**
+	 * Carrier sent after the data of each transmission, as a push bit
+	 * @param bits
+	 */
+	public void setPostCarrierBits(int bits) {
+		mPostCarrierBits = bits;
+	}
+	
+	public int getPostCarrierBits() {
+		return mPostCarrierBits;
+	}
+	
+	/**
+	 * Silence sent at the end of each transmission
+	 * @param bits
+	 */
+	public void setSilenceBits(int bits) {
+		mSilenceBits = bits;
+	}
+	
+	public int getSilenceBits() {
+		return mSilenceBits;
+	}
+	
+	/**
+	 * Wait up to the given time for more data when the queue runs out, so data
+	 * appended in quick succession goes out in one transmission and pays for the
+	 * post-carrier and silence only once. The encoder thread passes the signal
+	 * encoded so far to the callback before waiting, and sends pre-carrier again
+	 * if more data comes. In pull mode carrier is sent while waiting instead. The
+	 * thread is also kept for that long after a transmission, ready for the next one.
+	 * @param milliseconds 0 ends the transmission as soon as the queue is empty
+	 */
+	public void setLinger(int milliseconds) {
+		synchronized (mData) {
+			mLinger = milliseconds;
+			mLingerBits = (int) Math.ceil(milliseconds * (double) mConfig.sampleRate / (1000.0 * mConfig.samplesPerBit));
+		}
+	}
+	
+	public int getLinger() {
+		return mLinger;
+	}
+	
+	/**
+	 * Wait for data to be appended, the caller holds the data lock
+	 * @param timeout in milliseconds
+	 * @return true if there is data in the queue
+	 */
+	protected boolean waitData(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		
+		try {
+			while (mData.isEmpty() && mRunning) {
+				long wait = deadline - System.currentTimeMillis();
+				
+				if (wait <= 0) {
+					break;
+				}
+				
+				mData.wait(wait);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); //stopped
+		}
+		
+		return !mData.isEmpty();
+	}
+	
 	protected void nextStatus() {
 		switch (mEncoderStatus) {
 			case IDLE:
@@ -208,323 +364,607 @@ public class FSKEncoder {
 	
 	protected void setStatus(EncoderStatus status) {
 		mEncoderStatus = status;
+		
+		mBitCounter = 0;
 	}
 	
 	protected void allocateBufferSignal() {
-		if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
-			mSignalPCM8 = ByteBuffer.allocate(mConfig.sampleRate); //1 second buffer
-		}
-		else if (mConfig.pcmFormat == FSKConfig.PCM_16BIT) {
-			mSignalPCM16 = ShortBuffer.allocate(mConfig.sampleRate); //1 second buffer
+		if (!mPull) {
+			if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
+				mSignalPCM8 = ByteBuffer.allocate(mConfig.sampleRate); //1 second buffer
+			}
+			else if (mConfig.pcmFormat == FSKConfig.PCM_16BIT) {
+				mSignalPCM16 = ShortBuffer.allocate(mConfig.sampleRate); //1 second buffer
+			}
 		}
+		
+		resetTarget();
+		
+		mPendingLength = 0;
+		mPendingPCM8 = null;
+		mPendingPCM16 = null;
+	}
+	
+	protected void resetTarget() {
+		//write to the signal buffer, nowhere in pull mode until read() is called
+		
+		mTarget8 = (mSignalPCM8 != null) ? mSignalPCM8.array() : null;
+		mTarget16 = (mSignalPCM16 != null) ? mSignalPCM16.array() : null;
+		mTargetOffset = 0;
+		mTargetCapacity = mPull ? 0 : mConfig.sampleRate;
+		
+		mSignalLength = 0;
 	}
 
-	protected void allocateBufferData() {
-		mData = ByteBuffer.allocate(FSKConfig.ENCODER_DATA_BUFFER_SIZE);
+	/**
+	 * Use this method to feed byte array data to the encoder. Data that does not
+	 * fit under the queue limit is refused, unless the queue is empty, so a
+	 * payload of any size can be sent.
+	 * @param data
+	 * @return bytes left under the queue limit, or the amount of overflow (negative) when the data is refused
+	 */
+	public int appendData(byte[] data) {
+		return appendData(data, 0, data.length);
 	}
 	
-	protected void trimData() {
-		
-		if (mDataPointer <= mDataLength) {
+	/**
+	 * Use this method to feed part of a byte array to the encoder, see appendData(byte[])
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return bytes left under the queue limit, or the amount of overflow (negative) when the data is refused
+	 */
+	public int appendData(byte[] data, int offset, int length) {
 		
-			byte[] currentData = mData.array();
-			byte[] remainingData = new byte[mDataLength - mDataPointer];
+		synchronized (mData) {
 			
-			for (int i = 0; i < remainingData.length; i++) {
-				remainingData[i] = currentData[mDataPointer+i];
+			if (!mData.isEmpty() && mData.size() + length > mQueueLimit) {
+				//the encoder is gagging
+				
+				return (mQueueLimit - (mData.size() + length)); // refuse data and tell the amount of overflow
 			}
 			
-			mData = ByteBuffer.allocate(FSKConfig.ENCODER_DATA_BUFFER_SIZE);
-			mData.put(remainingData);
-			mData.rewind();
+			mData.put(data, offset, length);
 			
-			mDataPointer = 0;
-			mDataLength = remainingData.length;
-		}
-		else {
-			clearData();
+			mData.notifyAll(); //end the linger wait, the data joins the transmission
+			
+			start(); //if idle
+			
+			return Math.max(mQueueLimit - mData.size(), 0); //return the remaining amount of space under the limit
 		}
 	}
 	
 	/**
-	 * Use this method to feed byte array data to the encoder
+	 * Use this method to feed byte array data to the encoder, waiting for the
+	 * queue to go under the limit first. Data larger than the limit is queued
+	 * once the queue is empty.
 	 * @param data
-	 * @return bytes left in the buffer
+	 * @param timeout in milliseconds, 0 waits forever
+	 * @return bytes left under the queue limit, or the amount of overflow when the data is refused after the timeout
+	 * @throws InterruptedException
 	 */
-	public int appendData(byte[] data) {
+	public int appendData(byte[] data, long timeout) throws InterruptedException {
 		
 		synchronized (mData) {
-
-			if (mDataLength + data.length > mData.capacity()) {
-				//the buffer will overflow... attempt to trim data
+			long deadline = System.currentTimeMillis() + timeout;
+			
+			while (!mData.isEmpty() && mData.size() + data.length > mQueueLimit) {
+				long wait = (timeout > 0) ? deadline - System.currentTimeMillis() : 0;
 				
-				if ((mDataLength + data.length)-mDataPointer <= mData.capacity()) {
-					//we can cut off part of the data to fit the rest
-					
-					trimData();
-				}
-				else {
+				if (timeout > 0 && wait <= 0) {
 					//the encoder is gagging
 					
-					return (mData.capacity() - (mDataLength + data.length)); // refuse data and tell the amount of overflow
+					return (mQueueLimit - (mData.size() + data.length)); // refuse data and tell the amount of overflow
 				}
+				
+				mData.wait(wait);
 			}
 			
-			mData.position(mDataLength);
-			mData.put(data);
-
-			mDataLength += data.length;
-			
-			start(); //if idle
+			return appendData(data);
+		}
+	}
+	
+	/**
+	 * Set how many queued bytes appendData() accepts before it refuses data or blocks
+	 * @param bytes
+	 */
+	public void setQueueLimit(int bytes) {
+		synchronized (mData) {
+			mQueueLimit = bytes;
 			
-			return (mData.capacity() - mDataLength); //return the remaining amount of space in the buffer
+			mData.notifyAll();
 		}
 	}
-
+	
+	public int getQueueLimit() {
+		return mQueueLimit;
+	}
+	
+	/**
+	 * @return bytes waiting to be encoded, including the one being sent
+	 */
+	public int getQueueSize() {
+		synchronized (mData) {
+			return mData.size();
+		}
+	}
+	
 	/**
 	 * Use this method to set byte array data to the encoder
 	 * @param data
-	 * @return bytes left in the buffer
+	 * @return bytes left under the queue limit
 	 */
 	public int setData(byte[] data) {
-		allocateBufferSignal(); //reset signal output buffer
-		
-		clearData();
-
-		return appendData(data);
+		synchronized (mData) {
+			clearData();
+			
+			return appendData(data);
+		}
 	}
 
 	/**
 	 * Use this method to destroy all data currently queued for encoding
-	 * @return bytes left in the buffer
+	 * @return bytes left under the queue limit
 	 */
 	public int clearData() {
 		synchronized (mData) {
 			allocateBufferSignal();
 			
-			mDataLength = 0;
-			mDataPointer = 0;
+			mData.clear();
+			
+			mCurrentBit = 0;
+			
+			mData.notifyAll(); //wake up blocked appendData()
 			
-			return mData.capacity();
+			return mQueueLimit;
 		}
 	}
 	
-	protected void flushSignal() {
+	/**
+	 * Use this method to pull the next part of the signal in pull mode, it is
+	 * generated straight into the given array. Silence is sent while there
+	 * is no data to encode, or carrier if setIdleCarrier() is enabled.
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return number of samples written, whole frames of all channels
+	 */
+	public int read(byte[] buffer, int offset, int length) {
+		if (!mPull || mConfig.pcmFormat != FSKConfig.PCM_8BIT) {
+			throw new IllegalStateException("Encoder is not in 8bit pull mode");
+		}
+		
+		synchronized (mData) {
+			mTarget8 = buffer;
+			mTargetOffset = offset;
+			mTargetCapacity = length;
+			mSignalLength = 0;
+			
+			int count = pull();
+			
+			resetTarget();
+			
+			return count;
+		}
+	}
+	
+	/**
+	 * Use this method to pull the next part of the signal in pull mode, it is
+	 * generated straight into the given array. Silence is sent while there
+	 * is no data to encode, or carrier if setIdleCarrier() is enabled.
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return number of samples written, whole frames of all channels
+	 */
+	public int read(short[] buffer, int offset, int length) {
+		if (!mPull || mConfig.pcmFormat != FSKConfig.PCM_16BIT) {
+			throw new IllegalStateException("Encoder is not in 16bit pull mode");
+		}
+		
+		synchronized (mData) {
+			mTarget16 = buffer;
+			mTargetOffset = offset;
+			mTargetCapacity = length;
+			mSignalLength = 0;
+			
+			int count = pull();
+			
+			resetTarget();
+			
+			return count;
+		}
+	}
+	
+	/**
+	 * Send carrier instead of silence from read() while there is no data to encode
+	 * @param enabled
+	 */
+	public void setIdleCarrier(boolean enabled) {
+		mIdleCarrier = enabled;
+	}
+	
+	public boolean isIdleCarrier() {
+		return mIdleCarrier;
+	}
+	
+	/**
+	 * @return true if all data is sent, including the trailing carrier and silence
+	 */
+	public boolean isIdle() {
+		synchronized (mData) {
+			return mEncoderStatus.equals(EncoderStatus.IDLE) && mData.isEmpty() && (mPendingLength == 0 || mPendingIdle);
+		}
+	}
+	
+	protected int pull() {
+		while (signalSpace() > 0) {
+			if (mPendingLength > 0) {
+				//finish the bit cut off by the previous read
+				
+				writePending();
+			}
+			else if (mEncoderStatus.equals(EncoderStatus.IDLE) && !mData.isEmpty()) {
+				setStatus(EncoderStatus.PRE_CARRIER); //data came in during the last transmission
+			}
+			else if (mEncoderStatus.equals(EncoderStatus.IDLE)) {
+				modulate(mIdleCarrier ? STATE.HIGH : STATE.SILENCE);
+				
+				mPendingIdle = true;
+			}
+			else {
+				processIteration();
+				
+				mPendingIdle = false;
+			}
+		}
+		
+		return mSignalLength;
+	}
+	
+	protected void writePending() {
+		byte[] pcm8 = mPendingPCM8;
+		short[] pcm16 = mPendingPCM16;
+		
+		int offset = mPendingOffset;
+		int length = mPendingLength;
+		
+		mPendingPCM8 = null;
+		mPendingPCM16 = null;
+		mPendingLength = 0;
+		
+		if (pcm8 != null) {
+			writeSignal(pcm8, offset, length);
+		}
+		else if (pcm16 != null) {
+			writeSignal(pcm16, offset, length);
+		}
+		else {
+			modulateContinuous(mPendingStep, length);
+		}
+	}
+	
+	/**
+	 * Pass the signal buffer to the callback
+	 * @return false in pull mode, where the signal can not be flushed
+	 */
+	protected boolean flushSignal() {
+		if (mPull) {
+			return false;
+		}
+		
 		if (mSignalLength > 0) {
 			
 			if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
 				byte[] dataPCM8 = new byte[mSignalLength];
-			
-				for (int i = 0; i < mSignalLength; i++) {
-					dataPCM8[i] = mSignalPCM8.get(i);
-				}
+				
+				System.arraycopy(mTarget8, 0, dataPCM8, 0, mSignalLength);
 				
 				notifyCallback(dataPCM8, null);
 			}
 			else if (mConfig.pcmFormat == FSKConfig.PCM_16BIT) {
 				short[] dataPCM16 = new short[mSignalLength];
 				
-				for (int i = 0; i < mSignalLength; i++) {
-					dataPCM16[i] = mSignalPCM16.get(i);
-				}
+				System.arraycopy(mTarget16, 0, dataPCM16, 0, mSignalLength);
 				
 				notifyCallback(null, dataPCM16);
 			}
 			
 			mSignalLength = 0;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @return how many samples fit in the signal buffer, whole frames of all channels
+	 */
+	protected int signalSpace() {
+		int space = mTargetCapacity - mSignalLength;
+		
+		return space - (space % mConfig.channels);
+	}
+	
+	/**
+	 * Advance the bit clock by one bit
+	 * @return samples in the bit, whole samples per bit or one more
+	 */
+	protected int nextBitLength() {
+		mBitClock += mConfig.bitLength;
+		
+		int samples = mBitClock >> FSKConfig.BIT_CLOCK_BITS;
+		
+		mBitClock &= FSKConfig.BIT_CLOCK_MASK;
+		
+		return samples;
+	}
+	
+	protected void modulate(STATE state) {
+		int samples = nextBitLength();
+		
+		if (mPhaseContinuous && !state.equals(STATE.SILENCE)) {
+			modulateContinuous(mWaveforms.getPhaseStep(state), samples);
 			
-			allocateBufferSignal();
+			return;
+		}
+		
+		if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
+			writeSignal(mWaveforms.getPCM8(state), 0, samples * mConfig.channels);
+		}
+		else if (mConfig.pcmFormat == FSKConfig.PCM_16BIT) {
+			writeSignal(mWaveforms.getPCM16(state), 0, samples * mConfig.channels);
 		}
 	}
 	
-	protected void checkSignalBuffer() {
+	protected void modulateTone(int tone) {
+		int samples = nextBitLength();
+		
+		if (mPhaseContinuous) {
+			modulateContinuous(mWaveforms.getToneStep(tone), samples);
+			
+			return;
+		}
+		
 		if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
-			if (mSignalLength >= mSignalPCM8.capacity() - 2) {
-				//time to flush
-				
-				flushSignal();
-			}
+			writeSignal(mWaveforms.getTonePCM8(tone), 0, samples * mConfig.channels);
 		}
-		else {
-			if (mSignalLength >= mSignalPCM16.capacity() - 2) {
-				//time to flush
-				
-				flushSignal();
-			}
+		else if (mConfig.pcmFormat == FSKConfig.PCM_16BIT) {
+			writeSignal(mWaveforms.getTonePCM16(tone), 0, samples * mConfig.channels);
 		}
 	}
 	
-	protected void modulate(STATE state) {
-		if (!state.equals(STATE.SILENCE)) {
-			//high or low bit
+	protected void modulateContinuous(int step, int frames) {
+		//numerically controlled oscillator, top bits of the phase index the sine table
+		
+		int shift = 32 - FSKWaveforms.SINE_TABLE_BITS;
+		
+		while (frames > 0) {
+			int count = Math.min(frames, signalSpace() / mConfig.channels);
 			
-			if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
-				byte[] newData = modulate8(state);
-				
-				mSignalPCM8.position(mSignalLength);
-				
-				for (int i = 0; i < mConfig.samplesPerBit; i++) {
+			if (count == 0) {
+				if (!flushSignal()) {
+					//keep the rest for the next read
 					
-					mSignalPCM8.put(newData[i]);
+					mPendingStep = step;
+					mPendingLength = frames;
 					
-					mSignalLength++;
-					
-					if (mConfig.channels == FSKConfig.CHANNELS_STEREO) {
-						mSignalPCM8.put(newData[i]);
-						
-						mSignalLength++;
-					}
-					
-					checkSignalBuffer();
+					return;
 				}
-			}
-			else if (mConfig.pcmFormat == FSKConfig.PCM_16BIT) {
-				short[] newData = modulate16(state);
 				
-				for (int i = 0; i < mConfig.samplesPerBit; i++) {
-					mSignalPCM16.put(newData[i]);
-					
-					mSignalLength++;
-					
-					if (mConfig.channels == FSKConfig.CHANNELS_STEREO) {
-						mSignalPCM16.put(newData[i]);
-						
-						mSignalLength++;
-					}
-					
-					checkSignalBuffer();
-				}
+				continue;
 			}
-		}
-		else {
-			if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
-				mSignalPCM8.position(mSignalLength);
 			
-				for (int i = 0; i < mConfig.samplesPerBit; i++) {
-					mSignalPCM8.put((byte) 0);
-					
-					mSignalLength++;
+			int position = mTargetOffset + mSignalLength;
+			
+			if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
+				byte[] signal = mTarget8;
+				byte[] sine = mWaveforms.getSine8();
+				
+				for (int i = 0; i < count; i++) {
+					byte sample = sine[mPhase >>> shift];
 					
-					if (mConfig.channels == FSKConfig.CHANNELS_STEREO) {
-						mSignalPCM8.put((byte) 0);
-						
-						mSignalLength++;
+					for (int c = 0; c < mConfig.channels; c++) {
+						signal[position++] = sample;
 					}
 					
-					checkSignalBuffer();
+					mPhase += step;
 				}
 			}
 			else if (mConfig.pcmFormat == FSKConfig.PCM_16BIT) {
-				mSignalPCM16.position(mSignalLength);
+				short[] signal = mTarget16;
+				short[] sine = mWaveforms.getSine16();
 				
-				for (int i = 0; i < mConfig.samplesPerBit; i++) {
-					mSignalPCM16.put((short) 0);
-					
-					mSignalLength++;
+				for (int i = 0; i < count; i++) {
+					short sample = sine[mPhase >>> shift];
 					
-					if (mConfig.channels == FSKConfig.CHANNELS_STEREO) {
-						mSignalPCM16.put((short) 0);
-						
-						mSignalLength++;
+					for (int c = 0; c < mConfig.channels; c++) {
+						signal[position++] = sample;
 					}
 					
-					checkSignalBuffer();
+					mPhase += step;
 				}
 			}
+			
+			mSignalLength += count * mConfig.channels;
+			frames -= count;
 		}
 	}
 	
-	protected byte[] modulate8(STATE state) {
-		int freq = 0;
-		byte[] buffer = new byte[mConfig.samplesPerBit];
+	protected void modulateFrame(byte data) {
+		int offset = (data & 0xFF) * mWaveforms.getFrameLength();
 		
-		if (state.equals(STATE.HIGH)) {
-			freq = mConfig.modemFreqHigh;
+		if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
+			writeSignal(mWaveforms.getFrames8(), offset, mWaveforms.getFrameLength());
 		}
-		else {
-			freq = mConfig.modemFreqLow;
+		else if (mConfig.pcmFormat == FSKConfig.PCM_16BIT) {
+			writeSignal(mWaveforms.getFrames16(), offset, mWaveforms.getFrameLength());
 		}
-		
-		for (int i = 0; i < buffer.length; i++) {
-			buffer[i] = (byte) (128 + 127 * Math.sin((2 * Math.PI) * (i*1.0f / mConfig.sampleRate) * freq));
-	    }
-		
-		return buffer;
 	}
 	
-	protected short[] modulate16(STATE state) {
-		int freq = 0;
-		short[] buffer = new short[mConfig.samplesPerBit];
+	protected void writeSignal(byte[] wave, int offset, int length) {
+		//copy precalculated signal, flushing the signal buffer whenever it fills up
 		
-		if (state.equals(STATE.HIGH)) {
-			freq = mConfig.modemFreqHigh;
-		}
-		else {
-			freq = mConfig.modemFreqLow;
+		while (length > 0) {
+			int count = Math.min(length, signalSpace());
+			
+			if (count == 0) {
+				if (!flushSignal()) {
+					//keep the rest for the next read
+					
+					mPendingPCM8 = wave;
+					mPendingOffset = offset;
+					mPendingLength = length;
+					
+					return;
+				}
+				
+				continue;
+			}
+			
+			System.arraycopy(wave, offset, mTarget8, mTargetOffset + mSignalLength, count);
+			
+			mSignalLength += count;
+			offset += count;
+			length -= count;
 		}
-		
-		for (int i = 0; i < buffer.length; i++) {
-			buffer[i] = (short) (32767 * Math.sin((2 * Math.PI) * (i*1.0f / mConfig.sampleRate) * freq));
-	    }
-		
-		return buffer;
 	}
 	
-	protected void processIterationCarrier() {
-		if (mEncoderStatus.equals(EncoderStatus.PRE_CARRIER)) {
-			//40ms HIGH signal
+	protected void writeSignal(short[] wave, int offset, int length) {
+		//copy precalculated signal, flushing the signal buffer whenever it fills up
+		
+		while (length > 0) {
+			int count = Math.min(length, signalSpace());
 			
-			for (int i = 0; i < mPreCarrierBits; i++) {
-				modulate(STATE.HIGH);
+			if (count == 0) {
+				if (!flushSignal()) {
+					//keep the rest for the next read
+					
+					mPendingPCM16 = wave;
+					mPendingOffset = offset;
+					mPendingLength = length;
+					
+					return;
+				}
+				
+				continue;
 			}
 			
+			System.arraycopy(wave, offset, mTarget16, mTargetOffset + mSignalLength, count);
+			
+			mSignalLength += count;
+			offset += count;
+			length -= count;
+		}
+	}
+	
+	protected void processIteration() {
+		switch (mEncoderStatus) {
+			case PRE_CARRIER:case POST_CARRIER:
+				processIterationCarrier();
+				
+				break;
+				
+			case ENCODING:
+				processIterationEncoding();
+				
+				break;
+				
+			case SILENCE:
+				processIterationSilence();
+				
+				break;
+				
+			default:
+				break;
 		}
-		else if (mEncoderStatus.equals(EncoderStatus.POST_CARRIER)) {
-			//5ms HIGH signal as a push bit to end transmission
+	}
+	
+	protected void processIterationCarrier() {
+		//one bit at a time
+		
+		int bits = mEncoderStatus.equals(EncoderStatus.PRE_CARRIER) ? mPreCarrierBits : mPostCarrierBits;
+		
+		if (mBitCounter < bits) {
+			//40ms HIGH signal before the data, 5ms after it as a push bit to end transmission
 			
-			for (int i = 0; i < mPostCarrierBits; i++) {
-				modulate(STATE.HIGH);
-			}
+			modulate(STATE.HIGH);
+			
+			mBitCounter++;
 		}
 		
-		nextStatus();
+		if (mBitCounter >= bits) {
+			nextStatus();
+		}
 	}
 
 	protected void processIterationEncoding() {
-		if (mDataPointer < mDataLength) {
-			mData.position(mDataPointer);
+		if (!mData.isEmpty()) {
+			byte data = mData.peek();
 			
-			byte data = mData.get();
+			mBitCounter = 0; //linger again after this byte
 			
-			modulate(STATE.LOW); //start bit
+			if (mCurrentBit == 0 && mFrames && !mPhaseContinuous) {
+				//whole byte at once
+				
+				modulateFrame(data);
+				
+				removeData();
+				
+				return;
+			}
+			
+			//one symbol at a time, start bit, data lowest bits first, end bit
 			
-			//modulate data bits
-			for(byte mask = 1; mask != 0; mask <<= 1) {
-	            if((data & mask) > 0){
-	                modulate(STATE.HIGH);
-	            }
-	            else{
-	                modulate(STATE.LOW);
-	            }
-	        }
+			int[] symbols = mWaveforms.getSymbols(data);
 			
-			modulate(STATE.HIGH); //end bit
+			modulateTone(symbols[mCurrentBit]);
 			
-			mDataPointer++;
+			mCurrentBit++;
+			
+			if (mCurrentBit == symbols.length) {
+				mCurrentBit = 0;
+				
+				removeData();
+			}
+		}
+		else if (mPull && mBitCounter < mLingerBits) {
+			//keep the carrier up for a while, more data joins this transmission
+			
+			modulate(STATE.HIGH);
+			
+			mBitCounter++;
+		}
+		else if (!mPull && mLinger > 0 && flushSignal() && waitData(mLinger)) {
+			//more data joins this transmission, the signal so far was handed over before waiting
+			//and the line may have gone quiet since, so the data gets a new pre-carrier
+			
+			setStatus(EncoderStatus.PRE_CARRIER);
 		}
 		else {
 			nextStatus();
 		}
 	}
 	
+	protected void removeData() {
+		mData.remove();
+		
+		if (mData.size() < mQueueLimit) {
+			mData.notifyAll(); //wake up blocked appendData()
+		}
+	}
+	
 	protected void processIterationSilence() {
-		for (int i = 0; i < mSilenceBits; i++) {
+		if (mBitCounter < mSilenceBits) {
 			modulate(STATE.SILENCE);
+			
+			mBitCounter++;
 		}
 		
-		flushSignal();
-		
-		nextStatus();
+		if (mBitCounter >= mSilenceBits) {
+			flushSignal();
+			
+			nextStatus();
+		}
 	}
 	
 }
@@ -0,0 +1,182 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+import bg.cytec.android.fskmodem.FSKDecoder.STATE;
+
+public class FSKGoertzelDetector extends FSKToneDetector {
+
+	public static final double TONE_THRESHOLD = 0.25; // minimum share of the frame energy found in the mark and space tones
+
+	// /
+
+	protected double mCoeffHigh; // mark tone, 2*cos(w)
+
+	protected double mCoeffLow; // space tone, 2*cos(w)
+
+	protected double mPowerHigh = 0;
+
+	protected double mPowerLow = 0;
+
+	protected double[] mCoeffTones; // one filter per modem tone, M-ary modes
+
+	protected double[] mPowerTones;
+
+	///
+
+	/**
+	 * Create tone detector that compares the mark and space tone power
+	 * @param config
+	 */
+	public FSKGoertzelDetector(FSKConfig config) {
+		super(config);
+
+		//coefficients are calculated once per profile and shared
+		mCoeffTones = FSKWaveforms.getInstance(config).getCoefficients();
+		mPowerTones = new double[mConfig.modemTones];
+
+		mCoeffHigh = mCoeffTones[mConfig.modemTones - 1];
+		mCoeffLow = mCoeffTones[0];
+	}
+
+	// /
+
+	@Override
+	public STATE detect(short[] data, int offset, int length) {
+		long energy = goertzel(data, offset, length);
+
+		if (isSilence(energy, length)) {
+			return STATE.SILENCE;
+		}
+
+		//a pure tone in a frame of N samples has power of energy*N/2 in its bin
+		if (mPowerHigh + mPowerLow < TONE_THRESHOLD * energy * length / 2.0) {
+			return STATE.UNKNOWN;
+		}
+
+		return (mPowerHigh > mPowerLow) ? STATE.HIGH : STATE.LOW;
+	}
+
+	@Override
+	public int detectTone(short[] data, int offset, int length) {
+		long energy = goertzelTones(data, offset, length);
+
+		if (isSilence(energy, length)) {
+			return -1;
+		}
+
+		int tone = 0;
+
+		for (int i = 1; i < mPowerTones.length; i++) {
+			if (mPowerTones[i] > mPowerTones[tone]) {
+				tone = i;
+			}
+		}
+
+		if (mPowerTones[tone] < TONE_THRESHOLD * energy * length / 2.0) {
+			return -1;
+		}
+
+		return tone;
+	}
+
+	@Override
+	public STATE search(FSKSlidingWindow window, short[] data) {
+		STATE state = super.search(window, data);
+
+		if (state.equals(STATE.LOW) && mPowerLow <= mPowerHigh) {
+			//the space tone outweighs the mark once the window is half way into the start bit,
+			//the decoder then moves half a frame forward onto the bit
+			state = STATE.UNKNOWN;
+		}
+
+		return state;
+	}
+
+	// /
+
+	/**
+	 * Run both mark and space filters over the frame
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return sum of squares of the frame
+	 */
+	protected long goertzel(short[] data, int offset, int length) {
+		long energy = 0;
+
+		double high1 = 0, high2 = 0;
+		double low1 = 0, low2 = 0;
+
+		for (int i = offset; i < offset + length; i++) {
+			short sample = data[i];
+
+			energy += sample * sample;
+
+			double high0 = sample + mCoeffHigh * high1 - high2;
+			high2 = high1;
+			high1 = high0;
+
+			double low0 = sample + mCoeffLow * low1 - low2;
+			low2 = low1;
+			low1 = low0;
+		}
+
+		mPowerHigh = high1 * high1 + high2 * high2 - mCoeffHigh * high1 * high2;
+		mPowerLow = low1 * low1 + low2 * low2 - mCoeffLow * low1 * low2;
+
+		return energy;
+	}
+
+	/**
+	 * Run the filter of every modem tone over the frame
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return sum of squares of the frame
+	 */
+	protected long goertzelTones(short[] data, int offset, int length) {
+		long energy = 0;
+
+		for (int i = offset; i < offset + length; i++) {
+			energy += data[i] * data[i];
+		}
+
+		for (int tone = 0; tone < mCoeffTones.length; tone++) {
+			double coeff = mCoeffTones[tone];
+			double s1 = 0, s2 = 0;
+
+			for (int i = offset; i < offset + length; i++) {
+				double s0 = data[i] + coeff * s1 - s2;
+				s2 = s1;
+				s1 = s0;
+			}
+
+			mPowerTones[tone] = s1 * s1 + s2 * s2 - coeff * s1 * s2;
+		}
+
+		return energy;
+	}
+
+}
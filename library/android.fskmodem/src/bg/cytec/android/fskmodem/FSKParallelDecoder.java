@@ -0,0 +1,265 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class FSKParallelDecoder implements Closeable {
+
+	public static final int SEGMENTS_PER_THREAD = 4; // more segments than threads evens out the load
+
+	public static final int MIN_SEGMENT_FRAMES = 1024; // do not bother splitting smaller pieces
+
+	public static final int MIN_SILENCE_FRAMES = 2; // whole silent frames that make a gap between transmissions
+
+	// /
+
+	protected FSKConfig mConfig;
+
+	protected ExecutorService mExecutor;
+
+	protected int mThreads = 0;
+
+	protected boolean mOwnExecutor = false; // shut it down on close
+
+	///
+
+	/**
+	 * Create offline decoder that splits long recordings at silence and
+	 * decodes the pieces on its own threads
+	 * @param config
+	 * @param threads
+	 */
+	public FSKParallelDecoder(FSKConfig config, int threads) {
+		this(config, Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "FSKParallelDecoder");
+				thread.setDaemon(true); //do not keep the application alive if close() is never called
+
+				return thread;
+			}
+		}), threads);
+
+		mOwnExecutor = true;
+	}
+
+	/**
+	 * Create offline decoder that decodes the pieces on the given executor
+	 * @param config
+	 * @param executor
+	 * @param threads how many threads the executor runs, used to size the pieces
+	 */
+	public FSKParallelDecoder(FSKConfig config, ExecutorService executor, int threads) {
+		mConfig = config;
+
+		mExecutor = executor;
+
+		mThreads = Math.max(threads, 1);
+	}
+
+	// /
+
+	/**
+	 * Decode 16bit PCM data of any length. The result is the same as 
+	 * FSKDecoder.decodeAll() on the whole data.
+	 * @param data
+	 * @return decoded data
+	 * @throws InterruptedException
+	 */
+	public byte[] decodeAll(final short[] data) throws InterruptedException {
+		List<int[]> segments = split(data.length, data, null);
+		List<Future<byte[]>> results = new ArrayList<Future<byte[]>>(segments.size());
+
+		for (final int[] segment : segments) {
+			results.add(mExecutor.submit(new Callable<byte[]>() {
+
+				@Override
+				public byte[] call() throws Exception {
+					return createDecoder().decodeAll(data, segment[0], segment[1]);
+				}
+			}));
+		}
+
+		return merge(results);
+	}
+
+	/**
+	 * Decode 8bit PCM data of any length. The result is the same as 
+	 * FSKDecoder.decodeAll() on the whole data.
+	 * @param data
+	 * @return decoded data
+	 * @throws InterruptedException
+	 */
+	public byte[] decodeAll(final byte[] data) throws InterruptedException {
+		List<int[]> segments = split(data.length, null, data);
+		List<Future<byte[]>> results = new ArrayList<Future<byte[]>>(segments.size());
+
+		for (final int[] segment : segments) {
+			results.add(mExecutor.submit(new Callable<byte[]>() {
+
+				@Override
+				public byte[] call() throws Exception {
+					return createDecoder().decodeAll(data, segment[0], segment[1]);
+				}
+			}));
+		}
+
+		return merge(results);
+	}
+
+	/**
+	 * Shut down the decoding threads if they were created by this decoder
+	 */
+	@Override
+	public void close() {
+		if (mOwnExecutor) {
+			mExecutor.shutdown();
+		}
+	}
+
+	// /
+
+	/**
+	 * Override to customize the decoders that run the pieces, e.g. to set a tone detector
+	 * @return new decoder without callback
+	 */
+	protected FSKDecoder createDecoder() {
+		return new FSKDecoder(mConfig, null);
+	}
+
+	/**
+	 * Wait for the pieces and concatenate their data in order
+	 * @param results
+	 * @return decoded data
+	 * @throws InterruptedException
+	 */
+	protected byte[] merge(List<Future<byte[]>> results) throws InterruptedException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		try {
+			for (Future<byte[]> result : results) {
+				byte[] decoded = result.get();
+
+				output.write(decoded, 0, decoded.length);
+			}
+		}
+		catch (ExecutionException e) {
+			for (Future<byte[]> result : results) {
+				result.cancel(false);
+			}
+
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+
+			throw new RuntimeException(e.getCause());
+		}
+
+		return output.toByteArray();
+	}
+
+	/**
+	 * Cut the data in the middle of silent gaps between transmissions. A gap
+	 * is found by checking whole frames against the RMS silence threshold.
+	 * @param length samples in the data
+	 * @param pcm16 16bit data or null
+	 * @param pcm8 8bit data or null
+	 * @return list of {offset, length} pairs covering the whole data
+	 */
+	protected List<int[]> split(int length, short[] pcm16, byte[] pcm8) {
+		List<int[]> segments = new ArrayList<int[]>();
+
+		int frame = mConfig.samplesPerBit * mConfig.channels; // samples in one frame, all channels
+		int target = Math.max(length / (mThreads * SEGMENTS_PER_THREAD), frame * MIN_SEGMENT_FRAMES);
+		long silence = mConfig.maxSilenceEnergy(frame); // energy of a frame at the threshold
+
+		int start = 0;
+		int position = target - (target % frame);
+		int silentFrames = 0;
+
+		while (position + frame <= length) {
+			long energy = energy(pcm16, pcm8, position, frame);
+
+			if (energy <= silence) {
+				silentFrames++;
+			}
+			else if (silentFrames >= MIN_SILENCE_FRAMES) {
+				//cut in the middle of the gap, on a whole frame so stereo channels stay in order
+				int cut = position - (silentFrames / 2) * frame;
+
+				segments.add(new int[] {start, cut - start});
+
+				start = cut;
+				position = cut + target - (target % frame);
+				silentFrames = 0;
+
+				continue;
+			}
+			else {
+				silentFrames = 0;
+			}
+
+			position += frame;
+		}
+
+		segments.add(new int[] {start, length - start});
+
+		return segments;
+	}
+
+	/**
+	 * Energy of a piece of either the 16bit or the 8bit data
+	 * @return sum of squared samples
+	 */
+	protected long energy(short[] pcm16, byte[] pcm8, int offset, int length) {
+		long energy = 0;
+
+		if (pcm16 != null) {
+			for (int i = offset; i < offset + length; i++) {
+				energy += pcm16[i] * pcm16[i];
+			}
+		}
+		else {
+			for (int i = offset; i < offset + length; i++) {
+				int sample = FSKDecoder.pcm8(pcm8[i]); //same sample values the decoder reads
+
+				energy += sample * sample;
+			}
+		}
+
+		return energy;
+	}
+
+}
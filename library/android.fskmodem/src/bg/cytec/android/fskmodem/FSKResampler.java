@@ -0,0 +1,353 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+import java.util.HashMap;
+
+public class FSKResampler {
+
+	public static final int TAPS = 16; // filter taps per phase, input samples that make one output sample
+
+	public static final int COEFF_BITS = 15; // filter coefficients are fixed point with 15 fractional bits
+
+	public static final double PASSBAND = 0.9; // share of the lower Nyquist frequency that passes
+
+	public static final int MAX_PHASES = 1024; // filter phases per ratio, finer output positions use the phase before them
+
+	protected static final HashMap<Long, int[][]> sBanks = new HashMap<Long, int[][]>();
+
+	// /
+
+	protected FSKDecoder mDecoder;
+
+	protected int mChannels;
+
+	protected int mUp; // output rate over input rate is mUp/mDown, reduced
+
+	protected int mDown;
+
+	protected int[][] mBank; // filter phase by output position, shared by all streams of the same ratio
+
+	protected int mPhases; // mUp, or MAX_PHASES for ratios that would need more
+
+	protected int[] mInput; // history of TAPS-1 input frames followed by the current chunk, channels interleaved
+
+	protected long mPosition = 0; // next output sample in units of 1/mUp input samples, from the start of the chunk
+
+	protected int[] mFiltered; // filter output before it is converted to the PCM format
+
+	protected short[] mOutput16;
+
+	protected byte[] mOutput8;
+
+	///
+
+	/**
+	 * Create a resampling stage in front of the decoder. The decoder config
+	 * sets the output rate. Any rate decodes, a rate from nearestSampleRate()
+	 * keeps every bit the same number of samples.
+	 * @param decoder
+	 * @param inputRate sample rate of the signal that will be appended
+	 */
+	public FSKResampler(FSKDecoder decoder, int inputRate) {
+		mDecoder = decoder;
+
+		mChannels = decoder.mConfig.channels;
+
+		int outputRate = decoder.mConfig.sampleRate;
+		int gcd = gcd(inputRate, outputRate);
+
+		mUp = outputRate / gcd;
+		mDown = inputRate / gcd;
+
+		mBank = getBank(mUp, mDown);
+		mPhases = mBank.length;
+
+		mInput = new int[(TAPS - 1) * mChannels];
+	}
+
+	/**
+	 * The closest sample rate to the capture rate where every bit is a whole number of samples.
+	 * FSKConfig takes any rate, but bits of whole samples are detected over the full bit
+	 * and allow tones closer than twice the baud rate.
+	 * @param inputRate
+	 * @param baudRate
+	 * @return
+	 */
+	public static int nearestSampleRate(int inputRate, int baudRate) {
+		int samplesPerBit = Math.max(1, Math.round((float) inputRate / baudRate));
+
+		return samplesPerBit * baudRate;
+	}
+
+	// /
+
+	/**
+	 * Use this method to feed 16bit PCM data at the input rate to the decoder
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return samples space left in the decoder buffer, negative amount of overflow if the data is refused
+	 */
+	public synchronized int appendSignal(short[] data, int offset, int length) {
+		int frames = length / mChannels;
+		int count = outputFrames(frames) * mChannels;
+
+		synchronized (mDecoder.mSignal) {
+			int overflow = mDecoder.checkSignalOverflow(count);
+
+			if (overflow < 0) {
+				return overflow; // refuse data, the filter state is left as it was
+			}
+
+			prepareInput(frames);
+
+			for (int i = 0; i < frames * mChannels; i++) {
+				mInput[(TAPS - 1) * mChannels + i] = data[offset + i];
+			}
+
+			if (mOutput16 == null || mOutput16.length < count) {
+				mOutput16 = new short[count];
+			}
+
+			int[] output = filter(frames, count);
+
+			for (int i = 0; i < count; i++) {
+				mOutput16[i] = (short) clamp(output[i], -32768, 32767);
+			}
+
+			mDecoder.putSignal(mOutput16, 0, count);
+		}
+
+		return mDecoder.signalAppended();
+	}
+
+	/**
+	 * Use this method to feed 8bit PCM data at the input rate to the decoder
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return samples space left in the decoder buffer, negative amount of overflow if the data is refused
+	 */
+	public synchronized int appendSignal(byte[] data, int offset, int length) {
+		int frames = length / mChannels;
+		int count = outputFrames(frames) * mChannels;
+
+		synchronized (mDecoder.mSignal) {
+			int overflow = mDecoder.checkSignalOverflow(count);
+
+			if (overflow < 0) {
+				return overflow; // refuse data, the filter state is left as it was
+			}
+
+			prepareInput(frames);
+
+			for (int i = 0; i < frames * mChannels; i++) {
+				mInput[(TAPS - 1) * mChannels + i] = (data[offset + i] & 0xFF) - 128; //unsigned to signed
+			}
+
+			if (mOutput8 == null || mOutput8.length < count) {
+				mOutput8 = new byte[count];
+			}
+
+			int[] output = filter(frames, count);
+
+			for (int i = 0; i < count; i++) {
+				mOutput8[i] = (byte) (clamp(output[i], -128, 127) + 128);
+			}
+
+			mDecoder.putSignal(mOutput8, 0, count);
+		}
+
+		return mDecoder.signalAppended();
+	}
+
+	/**
+	 * Forget the signal history, e.g. when a new capture starts
+	 */
+	public synchronized void reset() {
+		mInput = new int[(TAPS - 1) * mChannels];
+
+		mPosition = 0;
+	}
+
+	// /
+
+	/**
+	 * @param frames input frames
+	 * @return output frames the chunk makes, depends on where the last chunk ended
+	 */
+	protected int outputFrames(int frames) {
+		long end = (long) frames * mUp;
+
+		if (mPosition >= end) {
+			return 0;
+		}
+
+		return (int) ((end - mPosition + mDown - 1) / mDown);
+	}
+
+	/**
+	 * Keep the last TAPS-1 frames in front and make room for the chunk
+	 * @param frames
+	 */
+	protected void prepareInput(int frames) {
+		int history = (TAPS - 1) * mChannels;
+		int size = history + frames * mChannels;
+
+		if (mInput.length < size) {
+			int[] input = new int[size];
+
+			System.arraycopy(mInput, 0, input, 0, history);
+
+			mInput = input;
+		}
+	}
+
+	/**
+	 * Run the polyphase filter over the chunk in mInput
+	 * @param frames input frames in the chunk
+	 * @param count output samples, all channels
+	 * @return output samples, the array is reused by the next call
+	 */
+	protected int[] filter(int frames, int count) {
+		if (mFiltered == null || mFiltered.length < count) {
+			mFiltered = new int[count];
+		}
+
+		int[] output = mFiltered;
+		int round = 1 << (COEFF_BITS - 1);
+
+		for (int n = 0; n < count; n += mChannels) {
+			int index = (int) (mPosition / mUp); //newest input frame that contributes
+			int[] coeffs = mBank[(int) (mPosition % mUp * mPhases / mUp)];
+
+			for (int channel = 0; channel < mChannels; channel++) {
+				long sum = 0;
+				int position = (TAPS - 1 + index) * mChannels + channel;
+
+				for (int k = 0; k < TAPS; k++) {
+					sum += (long) coeffs[k] * mInput[position];
+
+					position -= mChannels;
+				}
+
+				output[n + channel] = (int) ((sum + round) >> COEFF_BITS);
+			}
+
+			mPosition += mDown;
+		}
+
+		mPosition -= (long) frames * mUp;
+
+		//the end of this chunk is the history of the next one
+		int history = (TAPS - 1) * mChannels;
+
+		System.arraycopy(mInput, frames * mChannels, mInput, 0, history);
+
+		return output;
+	}
+
+	// /
+
+	/**
+	 * Get the filter bank for the given ratio, calculated once and shared
+	 * @param up
+	 * @param down
+	 * @return
+	 */
+	protected static int[][] getBank(int up, int down) {
+		Long key = Long.valueOf(((long) up << 32) | down);
+
+		synchronized (sBanks) {
+			int[][] bank = sBanks.get(key);
+
+			if (bank == null) {
+				bank = createBank(up, down);
+
+				sBanks.put(key, bank);
+			}
+
+			return bank;
+		}
+	}
+
+	/**
+	 * Windowed sinc low pass at the upsampled rate, split into phases of TAPS coefficients.
+	 * Ratios like 44100/44099 would need tens of thousands of phases, those get MAX_PHASES
+	 * evenly spaced ones, less than 1/MAX_PHASES of an input sample apart.
+	 * @param up
+	 * @param down
+	 * @return
+	 */
+	protected static int[][] createBank(int up, int down) {
+		int phases = Math.min(up, MAX_PHASES);
+		int[][] bank = new int[phases][TAPS];
+
+		if (up == 1 && down == 1) {
+			bank[0][0] = 1 << COEFF_BITS; //same rate, pass through
+
+			return bank;
+		}
+
+		int length = phases * TAPS;
+		double cutoff = PASSBAND * 0.5 * up / ((double) phases * Math.max(up, down)); //cycles per sample at the rate of the phases
+		double center = (length - 1) / 2.0;
+
+		for (int phase = 0; phase < phases; phase++) {
+			double[] taps = new double[TAPS];
+			double sum = 0;
+
+			for (int k = 0; k < TAPS; k++) {
+				double x = phase + k * phases - center;
+				double sinc = (x == 0) ? 1.0 : Math.sin(2 * Math.PI * cutoff * x) / (2 * Math.PI * cutoff * x);
+				double window = 0.42 + 0.5 * Math.cos(2 * Math.PI * x / length) + 0.08 * Math.cos(4 * Math.PI * x / length); //blackman
+
+				taps[k] = sinc * window;
+				sum += taps[k];
+			}
+
+			for (int k = 0; k < TAPS; k++) {
+				bank[phase][k] = (int) Math.round(taps[k] / sum * (1 << COEFF_BITS)); //unity gain on every phase
+			}
+		}
+
+		return bank;
+	}
+
+	protected static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+
+		return a;
+	}
+
+	protected static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+}
@@ -0,0 +1,151 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+public class FSKRingBuffer {
+
+	protected short[] mBuffer; // twice the capacity, every sample is mirrored
+
+	protected int mCapacity = 0;
+
+	protected int mHead = 0; // where is the first sample in mBuffer
+
+	protected int mSize = 0; // how many samples are stored
+
+	///
+
+	/**
+	 * Create fixed capacity ring buffer for 16bit samples. Each sample is
+	 * stored twice, so any span of stored samples can be read in place as one
+	 * contiguous piece of array().
+	 * @param capacity
+	 */
+	public FSKRingBuffer(int capacity) {
+		mCapacity = capacity;
+
+		mBuffer = new short[capacity * 2];
+	}
+
+	// /
+
+	public int capacity() {
+		return mCapacity;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public int remaining() {
+		return mCapacity - mSize;
+	}
+
+	/**
+	 * @return backing array, read samples from it through offset()
+	 */
+	public short[] array() {
+		return mBuffer;
+	}
+
+	/**
+	 * Find where a stored sample is in array(). The following samples up to
+	 * size() are guaranteed to follow it without wrapping.
+	 * @param position relative to the first stored sample
+	 * @return index in array()
+	 */
+	public int offset(int position) {
+		return mHead + position;
+	}
+
+	public short get(int position) {
+		return mBuffer[mHead + position];
+	}
+
+	// /
+
+	/**
+	 * Append samples at the end of the buffer
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return number of samples stored, less than length if the buffer is full
+	 */
+	public int put(short[] data, int offset, int length) {
+		length = Math.min(length, remaining());
+
+		int tail = (mHead + mSize) % mCapacity;
+		int stored = 0;
+
+		while (stored < length) {
+			int chunk = Math.min(length - stored, mCapacity - tail);
+
+			System.arraycopy(data, offset + stored, mBuffer, tail, chunk);
+			System.arraycopy(data, offset + stored, mBuffer, tail + mCapacity, chunk);
+
+			stored += chunk;
+			tail = 0; //wrapped
+		}
+
+		mSize += stored;
+
+		return stored;
+	}
+
+	/**
+	 * Append single sample at the end of the buffer
+	 * @param sample
+	 * @return false if the buffer is full
+	 */
+	public boolean put(short sample) {
+		if (mSize == mCapacity) {
+			return false;
+		}
+
+		int tail = (mHead + mSize) % mCapacity;
+
+		mBuffer[tail] = sample;
+		mBuffer[tail + mCapacity] = sample;
+
+		mSize++;
+
+		return true;
+	}
+
+	/**
+	 * Drop samples from the beginning of the buffer
+	 * @param count
+	 */
+	public void discard(int count) {
+		count = Math.min(count, mSize);
+
+		mHead = (mHead + count) % mCapacity;
+		mSize -= count;
+	}
+
+	public void clear() {
+		mHead = 0;
+		mSize = 0;
+	}
+
+}
@@ -0,0 +1,135 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+public class FSKSlidingWindow {
+
+	protected int mLength = 0; // window length in samples, one frame
+
+	protected int mPosition = -1; // where the window starts in the signal, -1 when not calculated
+
+	protected long mEnergy = 0; // running sum of squares
+
+	protected int mCrossings = 0; // running count of zero crossings
+
+	///
+
+	/**
+	 * Create sliding window tracker over frames of the given length
+	 * @param length
+	 */
+	public FSKSlidingWindow(int length) {
+		mLength = length;
+	}
+
+	/**
+	 * Forget the current window, next move will calculate it from scratch.
+	 * Call this every time the underlying signal data is moved or replaced.
+	 */
+	public void reset() {
+		mPosition = -1;
+		mEnergy = 0;
+		mCrossings = 0;
+	}
+
+	/**
+	 * Move the window to the given position in the signal. Advancing by one
+	 * sample is O(1) and shorter forward jumps slide sample by sample, any
+	 * other jump recalculates the whole window.
+	 * @param signal
+	 * @param position
+	 */
+	public void moveTo(short[] signal, int position) {
+		if (position == mPosition) {
+			return;
+		}
+
+		if (mPosition >= 0 && position > mPosition && position - mPosition < mLength) {
+			//slide forward, cheaper than a full frame
+
+			while (mPosition < position) {
+				int head = mPosition;
+				int tail = mPosition + mLength;
+
+				mEnergy -= signal[head] * signal[head];
+				mEnergy += signal[tail] * signal[tail];
+
+				if (isCrossing(signal[head], signal[head+1])) {
+					mCrossings--;
+				}
+
+				if (isCrossing(signal[tail-1], signal[tail])) {
+					mCrossings++;
+				}
+
+				mPosition++;
+			}
+		}
+		else {
+			//calculate from scratch
+
+			mEnergy = 0;
+			mCrossings = 0;
+
+			for (int i = position; i < position + mLength; i++) {
+				mEnergy += signal[i] * signal[i];
+
+				if (i < position + mLength - 1 && isCrossing(signal[i], signal[i+1])) {
+					mCrossings++;
+				}
+			}
+		}
+
+		mPosition = position;
+	}
+
+	public int getPosition() {
+		return mPosition;
+	}
+
+	public int getLength() {
+		return mLength;
+	}
+
+	/**
+	 * @return sum of squares of all samples in the window
+	 */
+	public long getEnergy() {
+		return mEnergy;
+	}
+
+	/**
+	 * @return number of zero crossings in the window
+	 */
+	public int getCrossings() {
+		return mCrossings;
+	}
+
+	///
+
+	public static boolean isCrossing(short current, short next) {
+		return (current > 0 && next <= 0) || (current < 0 && next >= 0);
+	}
+
+}
@@ -0,0 +1,197 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+import java.io.Closeable;
+
+public class FSKStereoDecoder implements Closeable {
+
+	public interface FSKStereoDecoderCallback {
+		/**
+		 * This method will be called every time there is new data received on a channel
+		 * @param channel FSKConfig.CHANNEL_LEFT or FSKConfig.CHANNEL_RIGHT
+		 * @param newData
+		 */
+		public void decoded(int channel, byte[] newData);
+	}
+
+	// /
+
+	protected FSKConfig mConfig;
+
+	protected FSKStereoDecoderCallback mCallback;
+
+	protected FSKDecoder[] mDecoders = new FSKDecoder[2]; // one decoder per channel, each takes its channel of the input
+
+	///
+
+	/**
+	 * Create stereo decoder that demodulates the left and the right channel
+	 * separately, each with its own state machine
+	 * @param config stereo config
+	 * @param callback
+	 */
+	public FSKStereoDecoder(FSKConfig config, FSKStereoDecoderCallback callback) {
+		this(config, callback, config.sampleRate);
+	}
+
+	/**
+	 * Create stereo decoder that demodulates the left and the right channel
+	 * separately, each with its own state machine
+	 * @param config stereo config
+	 * @param callback
+	 * @param size signal buffer size of each channel, in samples
+	 */
+	public FSKStereoDecoder(FSKConfig config, FSKStereoDecoderCallback callback, int size) {
+		mConfig = config;
+
+		mCallback = callback;
+
+		for (int channel = 0; channel < 2; channel++) {
+			mDecoders[channel] = createDecoder(channel, size);
+		}
+	}
+
+	protected FSKDecoder createDecoder(final int channel, int size) {
+		FSKDecoder decoder = new FSKDecoder(mConfig, new FSKDecoder.FSKDecoderCallback() {
+
+			@Override
+			public void decoded(byte[] newData) {
+				if (mCallback != null) {
+					mCallback.decoded(channel, newData);
+				}
+			}
+		}, size);
+
+		decoder.setChannel(channel);
+
+		return decoder;
+	}
+
+	// /
+
+	/**
+	 * @param channel FSKConfig.CHANNEL_LEFT or FSKConfig.CHANNEL_RIGHT
+	 * @return the decoder of the channel, e.g. to set its tone detector
+	 */
+	public FSKDecoder getDecoder(int channel) {
+		return mDecoders[channel];
+	}
+
+	/**
+	 * Use this method to feed 8bit stereo PCM data to the decoder
+	 * @param data
+	 * @return samples space left in the buffer
+	 */
+	public int appendSignal(byte[] data) {
+		return appendSignal(data, 0, data.length);
+	}
+
+	/**
+	 * Use this method to feed part of an array of 8bit stereo PCM data to the decoder,
+	 * each channel is copied straight into the signal buffer of its decoder
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return samples space left in the buffer, negative amount of overflow if the data is refused
+	 */
+	public int appendSignal(byte[] data, int offset, int length) {
+		FSKDecoder left = mDecoders[FSKConfig.CHANNEL_LEFT];
+		FSKDecoder right = mDecoders[FSKConfig.CHANNEL_RIGHT];
+
+		synchronized (left.mSignal) {
+			synchronized (right.mSignal) {
+				//both channels take the data or none, so they stay in step
+
+				int overflow = Math.min(left.checkSignalOverflow(length), right.checkSignalOverflow(length));
+
+				if (overflow < 0) {
+					return overflow; // refuse data and tell the amount of overflow
+				}
+
+				left.putSignal(data, offset, length);
+				right.putSignal(data, offset, length);
+			}
+		}
+
+		return Math.min(left.signalAppended(), right.signalAppended());
+	}
+
+	/**
+	 * Use this method to feed 16bit stereo PCM data to the decoder
+	 * @param data
+	 * @return samples space left in the buffer
+	 */
+	public int appendSignal(short[] data) {
+		return appendSignal(data, 0, data.length);
+	}
+
+	/**
+	 * Use this method to feed part of an array of 16bit stereo PCM data to the decoder,
+	 * each channel is copied straight into the signal buffer of its decoder
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return samples space left in the buffer, negative amount of overflow if the data is refused
+	 */
+	public int appendSignal(short[] data, int offset, int length) {
+		FSKDecoder left = mDecoders[FSKConfig.CHANNEL_LEFT];
+		FSKDecoder right = mDecoders[FSKConfig.CHANNEL_RIGHT];
+
+		synchronized (left.mSignal) {
+			synchronized (right.mSignal) {
+				//both channels take the data or none, so they stay in step
+
+				int overflow = Math.min(left.checkSignalOverflow(length), right.checkSignalOverflow(length));
+
+				if (overflow < 0) {
+					return overflow; // refuse data and tell the amount of overflow
+				}
+
+				left.putSignal(data, offset, length);
+				right.putSignal(data, offset, length);
+			}
+		}
+
+		return Math.min(left.signalAppended(), right.signalAppended());
+	}
+
+	/**
+	 * Use this method to destroy all signal data on both channels
+	 */
+	public void clearSignal() {
+		mDecoders[FSKConfig.CHANNEL_LEFT].clearSignal();
+		mDecoders[FSKConfig.CHANNEL_RIGHT].clearSignal();
+	}
+
+	/**
+	 * Stop both decoding threads and release the signal buffers
+	 */
+	@Override
+	public void close() {
+		mDecoders[FSKConfig.CHANNEL_LEFT].close();
+		mDecoders[FSKConfig.CHANNEL_RIGHT].close();
+	}
+
+}
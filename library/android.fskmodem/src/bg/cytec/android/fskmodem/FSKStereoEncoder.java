@@ -0,0 +1,138 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+public class FSKStereoEncoder {
+
+	protected FSKConfig mConfig;
+
+	protected FSKEncoder[] mEncoders = new FSKEncoder[2]; // one mono encoder per channel
+
+	protected byte[] mChannel8; // one channel of output before it is interleaved
+
+	protected short[] mChannel16;
+
+	///
+
+	/**
+	 * Create stereo encoder that sends separate data on the left and the right
+	 * channel, doubling the throughput of a stereo link. Each channel has its
+	 * own data queue and state machine, the signal is pulled with read().
+	 * @param config stereo config
+	 */
+	public FSKStereoEncoder(FSKConfig config) {
+		mConfig = config;
+
+		FSKConfig mono = config.withChannels(FSKConfig.CHANNELS_MONO);
+
+		mEncoders[FSKConfig.CHANNEL_LEFT] = new FSKEncoder(mono);
+		mEncoders[FSKConfig.CHANNEL_RIGHT] = new FSKEncoder(mono);
+	}
+
+	// /
+
+	/**
+	 * @param channel FSKConfig.CHANNEL_LEFT or FSKConfig.CHANNEL_RIGHT
+	 * @return the encoder of the channel, to change its settings
+	 */
+	public FSKEncoder getEncoder(int channel) {
+		return mEncoders[channel];
+	}
+
+	/**
+	 * Use this method to feed byte array data to one channel
+	 * @param channel FSKConfig.CHANNEL_LEFT or FSKConfig.CHANNEL_RIGHT
+	 * @param data
+	 * @return bytes left under the queue limit of the channel, or the amount of overflow (negative) when the data is refused
+	 */
+	public int appendData(int channel, byte[] data) {
+		return mEncoders[channel].appendData(data);
+	}
+
+	/**
+	 * Use this method to destroy all data queued on both channels
+	 */
+	public void clearData() {
+		mEncoders[FSKConfig.CHANNEL_LEFT].clearData();
+		mEncoders[FSKConfig.CHANNEL_RIGHT].clearData();
+	}
+
+	/**
+	 * @return true if both channels sent all their data
+	 */
+	public boolean isIdle() {
+		return mEncoders[FSKConfig.CHANNEL_LEFT].isIdle() && mEncoders[FSKConfig.CHANNEL_RIGHT].isIdle();
+	}
+
+	/**
+	 * Use this method to pull the next part of the 8bit stereo signal
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return number of samples written, whole frames of both channels
+	 */
+	public synchronized int read(byte[] buffer, int offset, int length) {
+		int frames = length / 2;
+
+		if (mChannel8 == null || mChannel8.length < frames) {
+			mChannel8 = new byte[frames];
+		}
+
+		for (int channel = 0; channel < 2; channel++) {
+			frames = mEncoders[channel].read(mChannel8, 0, frames);
+
+			for (int i = 0; i < frames; i++) {
+				buffer[offset + i*2 + channel] = mChannel8[i];
+			}
+		}
+
+		return frames * 2;
+	}
+
+	/**
+	 * Use this method to pull the next part of the 16bit stereo signal
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return number of samples written, whole frames of both channels
+	 */
+	public synchronized int read(short[] buffer, int offset, int length) {
+		int frames = length / 2;
+
+		if (mChannel16 == null || mChannel16.length < frames) {
+			mChannel16 = new short[frames];
+		}
+
+		for (int channel = 0; channel < 2; channel++) {
+			frames = mEncoders[channel].read(mChannel16, 0, frames);
+
+			for (int i = 0; i < frames; i++) {
+				buffer[offset + i*2 + channel] = mChannel16[i];
+			}
+		}
+
+		return frames * 2;
+	}
+
+}
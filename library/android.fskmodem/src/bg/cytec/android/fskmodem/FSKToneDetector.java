@@ -0,0 +1,98 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+import bg.cytec.android.fskmodem.FSKDecoder.STATE;
+
+public abstract class FSKToneDetector {
+
+	protected FSKConfig mConfig;
+
+	///
+
+	/**
+	 * Create tone detector for the given modem configuration
+	 * @param config
+	 */
+	public FSKToneDetector(FSKConfig config) {
+		mConfig = config;
+	}
+
+	// /
+
+	/**
+	 * Classify one frame (one bit period) of signal
+	 * @param data
+	 * @param offset where the frame starts in data
+	 * @param length number of samples in the frame
+	 * @return HIGH, LOW, SILENCE or UNKNOWN
+	 */
+	public abstract STATE detect(short[] data, int offset, int length);
+
+	/**
+	 * Find which of the modem tones is in one frame (one symbol period) of signal.
+	 * Binary detectors map LOW and HIGH to the lowest and the highest tone.
+	 * @param data
+	 * @param offset where the frame starts in data
+	 * @param length number of samples in the frame
+	 * @return tone index, -1 for silence or no clear tone
+	 */
+	public int detectTone(short[] data, int offset, int length) {
+		STATE state = detect(data, offset, length);
+
+		if (state.equals(STATE.HIGH)) {
+			return mConfig.modemTones - 1;
+		}
+		else if (state.equals(STATE.LOW)) {
+			return 0;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Classify the frame under the search window. LOW must be reported only
+	 * when the frame is aligned well enough to be taken as a start bit.
+	 * @param window
+	 * @param data
+	 * @return HIGH, LOW, SILENCE or UNKNOWN
+	 */
+	public STATE search(FSKSlidingWindow window, short[] data) {
+		if (isSilence(window.getEnergy(), window.getLength())) {
+			return STATE.SILENCE; //no need to look any further
+		}
+
+		return detect(data, window.getPosition(), window.getLength());
+	}
+
+	// /
+
+	protected boolean isSilence(long energy, int numSamples) {
+		//compare energy against the squared RMS threshold, no square root
+		long limit = (numSamples == mConfig.samplesPerBit) ? mConfig.silenceEnergyThreshold : mConfig.maxSilenceEnergy(numSamples);
+
+		return (energy <= limit);
+	}
+
+}
@@ -0,0 +1,465 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import bg.cytec.android.fskmodem.FSKEncoder.STATE;
+
+public class FSKWaveforms {
+
+	public static final long DEFAULT_FRAME_BUDGET = 2 * 1024 * 1024; // bytes for all rendered byte frames
+
+	public static final int SINE_TABLE_BITS = 10; // sine lookup table has 2^10 entries for a full circle
+
+	protected static long sFrameBudget = DEFAULT_FRAME_BUDGET;
+
+	protected static long sFrameMemory = 0; // bytes taken by rendered byte frames
+
+	protected static final HashMap<FSKConfig, FSKWaveforms> sCache = new HashMap<FSKConfig, FSKWaveforms>(); // equal configs share the same tables
+
+	// /
+
+	protected FSKConfig mConfig;
+
+	protected byte[][] mPCM8; // one bit of signal per STATE, channels interleaved
+
+	protected short[][] mPCM16; // one bit of signal per STATE, channels interleaved
+
+	protected byte[][] mTonePCM8; // one symbol of signal per tone, channels interleaved
+
+	protected short[][] mTonePCM16; // one symbol of signal per tone, channels interleaved
+
+	protected int[][] mSymbols; // tones sent for each of the 256 byte values
+
+	protected byte[] mFrames8; // framed signal for all 256 byte values, one after another
+
+	protected short[] mFrames16; // framed signal for all 256 byte values, one after another
+
+	protected int mFrameLength = 0; // samples in one framed byte, all channels
+
+	protected byte[] mSine8; // one period of 8bit sine for the oscillator
+
+	protected short[] mSine16; // one period of 16bit sine for the oscillator
+
+	protected int mPhaseStepHigh; // oscillator phase increment per sample, full circle is 2^32
+
+	protected int mPhaseStepLow;
+
+	protected int[] mPhaseSteps; // oscillator phase increment per tone
+
+	protected double[] mCoefficients; // Goertzel filter coefficient per tone, 2*cos(w)
+
+	///
+
+	/**
+	 * Get the waveforms for the given config, calculated once and shared
+	 * @param config
+	 * @return
+	 */
+	public static FSKWaveforms getInstance(FSKConfig config) {
+		synchronized (sCache) {
+			FSKWaveforms waveforms = sCache.get(config);
+
+			if (waveforms == null) {
+				waveforms = new FSKWaveforms(config);
+
+				sCache.put(config, waveforms);
+			}
+
+			return waveforms;
+		}
+	}
+
+	/**
+	 * Set how much memory rendered byte frames may take in total, shared by
+	 * all configs. Frames already rendered are kept. Set to 0 to disable.
+	 * @param bytes
+	 */
+	public static void setFrameBudget(long bytes) {
+		synchronized (sCache) {
+			sFrameBudget = bytes;
+		}
+	}
+
+	public static long getFrameBudget() {
+		synchronized (sCache) {
+			return sFrameBudget;
+		}
+	}
+
+	protected FSKWaveforms(FSKConfig config) {
+		mConfig = config;
+
+		STATE[] states = STATE.values();
+
+		mPhaseStepHigh = phaseStep(mConfig.modemFreqHigh);
+		mPhaseStepLow = phaseStep(mConfig.modemFreqLow);
+
+		mPhaseSteps = new int[mConfig.modemTones];
+
+		for (int tone = 0; tone < mConfig.modemTones; tone++) {
+			mPhaseSteps[tone] = phaseStep(mConfig.getFrequency(tone));
+		}
+
+		mCoefficients = new double[mConfig.modemTones];
+
+		for (int tone = 0; tone < mConfig.modemTones; tone++) {
+			mCoefficients[tone] = 2.0 * Math.cos(2.0 * Math.PI * mConfig.getFrequency(tone) / mConfig.sampleRate);
+		}
+
+		mSymbols = new int[256][];
+
+		for (int value = 0; value < 256; value++) {
+			mSymbols[value] = symbols((byte) value);
+		}
+
+		if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
+			mPCM8 = new byte[states.length][];
+
+			for (STATE state : states) {
+				mPCM8[state.ordinal()] = interleave(modulate8(state));
+			}
+
+			mTonePCM8 = new byte[mConfig.modemTones][];
+
+			for (int tone = 0; tone < mConfig.modemTones; tone++) {
+				mTonePCM8[tone] = interleave(modulate8(mConfig.getFrequency(tone)));
+			}
+
+			mSine8 = new byte[1 << SINE_TABLE_BITS];
+
+			for (int i = 0; i < mSine8.length; i++) {
+				mSine8[i] = (byte) (128 + 127 * Math.sin((2 * Math.PI) * i / mSine8.length));
+			}
+		}
+		else if (mConfig.pcmFormat == FSKConfig.PCM_16BIT) {
+			mPCM16 = new short[states.length][];
+
+			for (STATE state : states) {
+				mPCM16[state.ordinal()] = interleave(modulate16(state));
+			}
+
+			mTonePCM16 = new short[mConfig.modemTones][];
+
+			for (int tone = 0; tone < mConfig.modemTones; tone++) {
+				mTonePCM16[tone] = interleave(modulate16(mConfig.getFrequency(tone)));
+			}
+
+			mSine16 = new short[1 << SINE_TABLE_BITS];
+
+			for (int i = 0; i < mSine16.length; i++) {
+				mSine16[i] = (short) (32767 * Math.sin((2 * Math.PI) * i / mSine16.length));
+			}
+		}
+	}
+
+	// /
+
+	/**
+	 * @param state
+	 * @return one bit of 8bit signal, do not modify. With fractional samples
+	 * per bit it has a sample more than the shorter bits use.
+	 */
+	public byte[] getPCM8(STATE state) {
+		return mPCM8[state.ordinal()];
+	}
+
+	/**
+	 * @param state
+	 * @return one bit of 16bit signal, do not modify. With fractional samples
+	 * per bit it has a sample more than the shorter bits use.
+	 */
+	public short[] getPCM16(STATE state) {
+		return mPCM16[state.ordinal()];
+	}
+
+	/**
+	 * @param tone
+	 * @return one symbol of 8bit signal, do not modify
+	 */
+	public byte[] getTonePCM8(int tone) {
+		return mTonePCM8[tone];
+	}
+
+	/**
+	 * @param tone
+	 * @return one symbol of 16bit signal, do not modify
+	 */
+	public short[] getTonePCM16(int tone) {
+		return mTonePCM16[tone];
+	}
+
+	/**
+	 * @param data
+	 * @return the tones sent for the given byte, start and stop symbol included, do not modify
+	 */
+	public int[] getSymbols(byte data) {
+		return mSymbols[data & 0xFF];
+	}
+
+	/**
+	 * @return symbols in one framed byte
+	 */
+	public int getFrameSymbols() {
+		return mSymbols[0].length;
+	}
+
+	/**
+	 * Render the framed signal of every byte value, if it fits in the frame budget
+	 * @return true if the frames are available
+	 */
+	public synchronized boolean renderFrames() {
+		if (mFrameLength > 0) {
+			return true;
+		}
+
+		if (!mConfig.isWholeBit()) {
+			return false; //bits differ in length, every byte could start anywhere in the bit clock
+		}
+
+		int length = getFrameSymbols() * mConfig.samplesPerBit * mConfig.channels;
+		long size = 256L * length * ((mConfig.pcmFormat == FSKConfig.PCM_8BIT) ? 1 : 2);
+
+		synchronized (sCache) {
+			if (sFrameMemory + size > sFrameBudget) {
+				return false;
+			}
+
+			sFrameMemory += size;
+		}
+
+		if (mConfig.pcmFormat == FSKConfig.PCM_8BIT) {
+			mFrames8 = new byte[256 * length];
+		}
+		else {
+			mFrames16 = new short[256 * length];
+		}
+
+		for (int value = 0; value < 256; value++) {
+			int position = value * length;
+
+			for (int tone : mSymbols[value]) {
+				if (mFrames8 != null) {
+					byte[] wave = getTonePCM8(tone);
+
+					System.arraycopy(wave, 0, mFrames8, position, wave.length);
+
+					position += wave.length;
+				}
+				else {
+					short[] wave = getTonePCM16(tone);
+
+					System.arraycopy(wave, 0, mFrames16, position, wave.length);
+
+					position += wave.length;
+				}
+			}
+		}
+
+		mFrameLength = length;
+
+		return true;
+	}
+
+	/**
+	 * @return framed 8bit signal of all byte values, byte value times getFrameLength() is where each one starts
+	 */
+	public byte[] getFrames8() {
+		return mFrames8;
+	}
+
+	/**
+	 * @return framed 16bit signal of all byte values, byte value times getFrameLength() is where each one starts
+	 */
+	public short[] getFrames16() {
+		return mFrames16;
+	}
+
+	/**
+	 * @return samples in one framed byte, 0 if frames are not rendered
+	 */
+	public int getFrameLength() {
+		return mFrameLength;
+	}
+
+	/**
+	 * @return one period of 8bit sine, index with the top SINE_TABLE_BITS of the phase
+	 */
+	public byte[] getSine8() {
+		return mSine8;
+	}
+
+	/**
+	 * @return one period of 16bit sine, index with the top SINE_TABLE_BITS of the phase
+	 */
+	public short[] getSine16() {
+		return mSine16;
+	}
+
+	/**
+	 * @param state
+	 * @return oscillator phase increment per sample for the given bit, full circle is 2^32
+	 */
+	public int getPhaseStep(STATE state) {
+		switch (state) {
+			case HIGH:
+				return mPhaseStepHigh;
+			case LOW:
+				return mPhaseStepLow;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * @param tone
+	 * @return oscillator phase increment per sample for the given tone, full circle is 2^32
+	 */
+	public int getToneStep(int tone) {
+		return mPhaseSteps[tone];
+	}
+
+	/**
+	 * @return Goertzel filter coefficient of every tone, do not modify
+	 */
+	public double[] getCoefficients() {
+		return mCoefficients;
+	}
+
+	// /
+
+	/**
+	 * The tones sent for one byte of data. Start symbol is the lowest tone,
+	 * stop symbol is the highest, data goes lowest bits first.
+	 * @param data
+	 * @return
+	 */
+	protected int[] symbols(byte data) {
+		int bps = mConfig.modemBitsPerSymbol;
+		int[] symbols = new int[1 + mConfig.getDataSymbols() + mConfig.stopBits];
+		int symbol = 0;
+
+		symbols[symbol++] = 0; //start bit
+
+		if (bps == 1) {
+			//binary modes, bit by bit the same way they always were sent
+			for (int bit = 0; bit < mConfig.dataBits; bit++) {
+				byte mask = (byte) (1 << bit);
+
+				symbols[symbol++] = ((data & mask) > 0) ? 1 : 0;
+			}
+		}
+		else {
+			int bits = (data & 0xFF) & ((1 << mConfig.dataBits) - 1);
+
+			for (int shift = 0; shift < mConfig.dataBits; shift += bps) {
+				symbols[symbol++] = (bits >> shift) & (mConfig.modemTones - 1);
+			}
+		}
+
+		while (symbol < symbols.length) {
+			symbols[symbol++] = mConfig.modemTones - 1; //end bit(s)
+		}
+
+		return symbols;
+	}
+
+	/**
+	 * @return samples in the longest bit
+	 */
+	protected int bitSamples() {
+		return mConfig.samplesPerBit + (mConfig.isWholeBit() ? 0 : 1);
+	}
+
+	protected int phaseStep(int freq) {
+		return (int) Math.round(freq * 4294967296.0 / mConfig.sampleRate);
+	}
+
+	protected int frequency(STATE state) {
+		return state.equals(STATE.HIGH) ? mConfig.modemFreqHigh : mConfig.modemFreqLow;
+	}
+
+	protected byte[] modulate8(STATE state) {
+		if (state.equals(STATE.SILENCE)) {
+			byte[] buffer = new byte[bitSamples()];
+
+			Arrays.fill(buffer, (byte) 0x80); //unsigned 8bit PCM, idle at 128
+
+			return buffer;
+		}
+
+		return modulate8(frequency(state));
+	}
+
+	protected short[] modulate16(STATE state) {
+		if (state.equals(STATE.SILENCE)) {
+			return new short[bitSamples()];
+		}
+
+		return modulate16(frequency(state));
+	}
+
+	protected byte[] modulate8(int freq) {
+		byte[] buffer = new byte[bitSamples()];
+
+		for (int i = 0; i < buffer.length; i++) {
+			buffer[i] = (byte) (128 + 127 * Math.sin((2 * Math.PI) * (i*1.0f / mConfig.sampleRate) * freq));
+		}
+
+		return buffer;
+	}
+
+	protected short[] modulate16(int freq) {
+		short[] buffer = new short[bitSamples()];
+
+		for (int i = 0; i < buffer.length; i++) {
+			buffer[i] = (short) (32767 * Math.sin((2 * Math.PI) * (i*1.0f / mConfig.sampleRate) * freq));
+		}
+
+		return buffer;
+	}
+
+	protected byte[] interleave(byte[] mono) {
+		byte[] result = new byte[mono.length * mConfig.channels];
+
+		for (int i = 0; i < result.length; i++) {
+			result[i] = mono[i / mConfig.channels]; //same signal on all channels
+		}
+
+		return result;
+	}
+
+	protected short[] interleave(short[] mono) {
+		short[] result = new short[mono.length * mConfig.channels];
+
+		for (int i = 0; i < result.length; i++) {
+			result[i] = mono[i / mConfig.channels]; //same signal on all channels
+		}
+
+		return result;
+	}
+
+}
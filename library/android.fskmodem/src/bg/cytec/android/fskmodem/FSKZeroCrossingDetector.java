@@ -0,0 +1,155 @@
+/**    
+ *   This file is part of the FSKModem java/android library for 
+ *   processing FSK audio signals. 
+ *   
+ *   The FSKModem library is developed by Ivan Ganev, CEO at
+ *   Cytec BG Ltd.
+ *
+ *   Copyright (C) 2014  Cytec BG Ltd. office@cytec.bg
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bg.cytec.android.fskmodem;
+
+import bg.cytec.android.fskmodem.FSKDecoder.STATE;
+
+public class FSKZeroCrossingDetector extends FSKToneDetector {
+
+	protected int mStartBitCrossings; // fewest zero crossings a frame of the low tone counts, at any phase
+
+	protected int mEdgeCrossings; // zero crossings of a frame that is half carrier and half start bit
+
+	///
+
+	/**
+	 * Create tone detector that guesses frequency from the zero crossings count
+	 * @param config
+	 */
+	public FSKZeroCrossingDetector(FSKConfig config) {
+		super(config);
+
+		//a tone crosses zero twice per cycle, the first and the last sample of a frame are samplesPerBit-1
+		//samples apart, the frame is not always a whole number of cycles
+		int span = mConfig.samplesPerBit - 1;
+
+		mStartBitCrossings = (int) (2L * mConfig.modemFreqLow * span / mConfig.sampleRate);
+		mEdgeCrossings = (int) ((long) (mConfig.modemFreqLow + mConfig.modemFreqHigh) * span / mConfig.sampleRate);
+	}
+
+	// /
+
+	@Override
+	public STATE detect(short[] data, int offset, int length) {
+		long energy = 0;
+		int numCrossing = 0;
+
+		for (int i = offset; i < offset + length; i++) {
+			energy += data[i] * data[i];
+
+			if (i < offset + length - 1 && FSKSlidingWindow.isCrossing(data[i], data[i+1])) {
+				numCrossing++;
+			}
+		}
+
+		return determineState(numCrossing, energy, length);
+	}
+
+	@Override
+	public int detectTone(short[] data, int offset, int length) {
+		long energy = 0;
+		int numCrossing = 0;
+
+		for (int i = offset; i < offset + length; i++) {
+			energy += data[i] * data[i];
+
+			if (i < offset + length - 1 && FSKSlidingWindow.isCrossing(data[i], data[i+1])) {
+				numCrossing++;
+			}
+		}
+
+		if (isSilence(energy, length)) {
+			return -1;
+		}
+
+		//nearest tone, crossings only resolve sampleRate/length so close tones get confused
+		long freq = (long) (numCrossing / 2) * mConfig.sampleRate; //frequency times length
+		int tone = 0;
+
+		for (int i = 1; i < mConfig.modemTones; i++) {
+			if (Math.abs(freq - (long) mConfig.getFrequency(i) * length) < Math.abs(freq - (long) mConfig.getFrequency(tone) * length)) {
+				tone = i;
+			}
+		}
+
+		return tone;
+	}
+
+	@Override
+	public STATE search(FSKSlidingWindow window, short[] data) {
+		//the window keeps running counts, no need to touch the samples
+		int crossings = window.getCrossings();
+
+		STATE state = determineState(crossings, window.getEnergy(), window.getLength());
+
+		if (state.equals(STATE.HIGH) || state.equals(STATE.LOW)) {
+			//the count falls steadily while the window slides from carrier into the start bit, the edge is in
+			//the middle of the window once it has fallen half way, the decoder then moves half a frame forward
+			if (crossings >= mStartBitCrossings && crossings <= mEdgeCrossings) {
+				state = STATE.LOW;
+			}
+			else if (state.equals(STATE.LOW)) {
+				state = STATE.UNKNOWN; //too few crossings for the low tone
+			}
+		}
+
+		return state;
+	}
+
+	// /
+
+	protected STATE determineState(int numCrossing, long energy, int numSamples) {
+
+		STATE state = STATE.UNKNOWN;
+
+		if (isSilence(energy, numSamples)) {
+			state = STATE.SILENCE;
+		}
+		else if (numCrossing <= crossingsLow(numSamples)) {
+			state = STATE.LOW;
+		}
+		else if (numCrossing <= crossingsHigh(numSamples)) {
+			state = STATE.HIGH;
+		}
+
+		return state;
+	}
+
+	protected int crossingsLow(int numSamples) {
+		if (numSamples == mConfig.samplesPerBit) {
+			return mConfig.crossingsLowThresholdHigh; //calculated once with the config
+		}
+
+		return mConfig.maxCrossings(mConfig.modemFreqLowThresholdHigh, numSamples);
+	}
+
+	protected int crossingsHigh(int numSamples) {
+		if (numSamples == mConfig.samplesPerBit) {
+			return mConfig.crossingsHighThresholdHigh;
+		}
+
+		return mConfig.maxCrossings(mConfig.modemFreqHighThresholdHigh, numSamples);
+	}
+
+}